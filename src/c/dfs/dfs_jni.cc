@@ -4,6 +4,7 @@
 #include "dnet_crypt.h"
 #include "dfsrsa.h"
 #include <jni.h>
+#include <stdint.h>
 #include <string.h>
 #include <stdio.h>
 #include <stdlib.h>
@@ -253,6 +254,36 @@ JNIEXPORT jbyteArray JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1uncrypt_1byt
     return jba;
 }
 
+//原地加密direct内存中连续的nsectors个sector, 第i个sector的序号为sectorNo + i
+extern "C"
+JNIEXPORT void JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1encrypt_1sectors(
+        JNIEnv *env,
+        jclass cls,
+        jlong address,
+        jint nsectors,
+        jlong sectorNo) {
+
+    char *buf = (char *)(intptr_t)address;
+    for (jint i = 0; i < nsectors; i++) {
+        dfslib_encrypt_sector(g_test_crypt, (dfs32*)(buf + (size_t)i * SECTOR_SIZE), (unsigned long long)(sectorNo + i));
+    }
+}
+
+//原地解密direct内存中连续的nsectors个sector, 第i个sector的序号为sectorNo + i
+extern "C"
+JNIEXPORT void JNICALL Java_io_xdag_crypto_jni_Native_dfslib_1uncrypt_1sectors(
+        JNIEnv *env,
+        jclass cls,
+        jlong address,
+        jint nsectors,
+        jlong sectorNo) {
+
+    char *buf = (char *)(intptr_t)address;
+    for (jint i = 0; i < nsectors; i++) {
+        dfslib_uncrypt_sector(g_test_crypt, (dfs32*)(buf + (size_t)i * SECTOR_SIZE), (unsigned long long)(sectorNo + i));
+    }
+}
+
 extern "C"
 JNIEXPORT jlong JNICALL Java_io_xdag_crypto_jni_Native_get_1user_1dnet_1crypt(
         JNIEnv *env,
@@ -40,6 +40,7 @@ import io.xdag.core.Blockchain;
 import io.xdag.core.BlockchainImpl;
 import io.xdag.core.XdagState;
 import io.xdag.core.XdagStats;
+import io.xdag.crypto.Sign;
 import io.xdag.db.DatabaseFactory;
 import io.xdag.db.DatabaseName;
 import io.xdag.db.rocksdb.RocksdbFactory;
@@ -164,6 +165,7 @@ public class Kernel {
         }
         isRunning.set(true);
         startEpoch = XdagTime.getCurrentEpoch();
+        log.info("Native secp256k1 {}", Sign.useNative(config.getNodeSpec().isNativeSecp256k1()) ? "on" : "off");
 
         EventProcesser.getEventBus().register(this);
 
@@ -192,7 +194,9 @@ public class Kernel {
                 dbFactory.getDB(DatabaseName.INDEX),
                 dbFactory.getDB(DatabaseName.BLOCK),
                 dbFactory.getDB(DatabaseName.TIME),
-                dbFactory.getDB(DatabaseName.TXHISTORY));
+                dbFactory.getDB(DatabaseName.TXHISTORY),
+                config.getNodeSpec().getBlockInfoCacheSize(),
+                config.getNodeSpec().getBlockInfoCacheWeight());
         log.info("Block Store init.");
         blockStore.init();
 
@@ -29,10 +29,14 @@ import com.google.common.collect.Maps;
 import io.xdag.Kernel;
 import io.xdag.core.BlockState;
 import io.xdag.core.*;
+import io.xdag.crypto.Sign;
+import io.xdag.db.OurBlocksIndex;
 import io.xdag.mine.MinerChannel;
 import io.xdag.mine.miner.Miner;
 import io.xdag.mine.miner.MinerCalculate;
 import io.xdag.mine.miner.MinerStates;
+import io.xdag.net.Channel;
+import io.xdag.net.message.MessageQueue;
 import io.xdag.net.node.Node;
 import io.xdag.utils.BasicUtils;
 import io.xdag.utils.XdagTime;
@@ -40,6 +44,7 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.time.FastDateFormat;
 import org.apache.tuweni.bytes.Bytes32;
 import org.apache.tuweni.bytes.MutableBytes32;
@@ -129,39 +134,29 @@ public class Commands {
         // account in memory, do not store in rocksdb, do not show in terminal
         StringBuilder str = new StringBuilder();
 
-        Map<Block, Integer> ours = new HashMap<>();
-        kernel.getBlockStore().fetchOurBlocks(pair -> {
-            Integer index = pair.getKey();
-            Block block = pair.getValue();
-            ours.putIfAbsent(block, index);
+        // amounts can change during the sort, so it works on a snapshot of them
+        List<Pair<OurBlocksIndex.OurBlock, Long>> list = new ArrayList<>();
+        kernel.getBlockStore().fetchOurBlockAmounts(block -> {
+            list.add(Pair.of(block, block.getAmount()));
             return false;
         });
 
-        List<Map.Entry<Block, Integer>> list = new ArrayList<>(ours.entrySet());
-
         // 按balance降序排序，按key index降序排序
         list.sort((o1, o2) -> {
-            // TODO
-            if (o2.getKey().getInfo().getAmount() > o1.getKey().getInfo().getAmount()) {
-                return 1;
-            } else if (o2.getKey().getInfo().getAmount() == o1.getKey().getInfo().getAmount()) {
-                return o2.getValue().compareTo(o1.getValue());
-            } else {
-                return -1;
-            }
-
+            int byAmount = Long.compare(o2.getValue(), o1.getValue());
+            return byAmount != 0 ? byAmount : Integer.compare(o2.getKey().getIndex(), o1.getKey().getIndex());
         });
 
-        for (Map.Entry<Block, Integer> mapping : list) {
+        for (Pair<OurBlocksIndex.OurBlock, Long> ours : list) {
             if (num == 0) {
                 break;
             }
-            str.append(hash2Address(mapping.getKey().getHash()))
+            str.append(hash2Address(ours.getKey().getHashlow()))
                     .append(" ")
-                    .append(String.format("%.9f", amount2xdag(mapping.getKey().getInfo().getAmount())))
+                    .append(String.format("%.9f", amount2xdag(ours.getValue())))
                     .append(" XDAG")
                     .append(" key ")
-                    .append(mapping.getValue()).append("\n");
+                    .append(ours.getKey().getIndex()).append("\n");
             num--;
         }
 
@@ -217,21 +212,20 @@ public class Commands {
         Map<Address, KeyPair> ourBlocks = Maps.newHashMap();
 
         // our block select
-        kernel.getBlockStore().fetchOurBlocks(pair -> {
-            int index = pair.getKey();
-            Block block = pair.getValue();
+        kernel.getBlockStore().fetchOurBlockAmounts(block -> {
+            int index = block.getIndex();
             if (XdagTime.getCurrentEpoch() < XdagTime.getEpoch(block.getTimestamp()) + 2 * CONFIRMATIONS_COUNT) {
                 return false;
             }
-            if (remain.get() <= block.getInfo().getAmount()) {
-                ourBlocks.put(new Address(block.getHashLow(), XDAG_FIELD_IN, remain.get()),
+            if (remain.get() <= block.getAmount()) {
+                ourBlocks.put(new Address(block.getHashlow(), XDAG_FIELD_IN, remain.get()),
                         kernel.getWallet().getAccounts().get(index));
                 remain.set(0);
                 return true;
             } else {
-                if (block.getInfo().getAmount() > 0) {
-                    remain.set(remain.get() - block.getInfo().getAmount());
-                    ourBlocks.put(new Address(block.getHashLow(), XDAG_FIELD_IN, block.getInfo().getAmount()),
+                if (block.getAmount() > 0) {
+                    remain.set(remain.get() - block.getAmount());
+                    ourBlocks.put(new Address(block.getHashlow(), XDAG_FIELD_IN, block.getAmount()),
                             kernel.getWallet().getAccounts().get(index));
                     return false;
                 }
@@ -353,21 +347,26 @@ public class Commands {
         BigInteger netDiff = xdagStats.getMaxdifficulty() != null ? xdagStats.getMaxdifficulty() : BigInteger.ZERO;
         BigInteger maxDiff = netDiff.max(currentDiff);
 
-        return String.format("""
+        String stats = String.format("""
                         Statistics for ours and maximum known parameters:
                                     hosts: %d of %d
                                    blocks: %d of %d
                               main blocks: %d of %d
                              extra blocks: %d
+                        extra blocks pool: %d of %d, %d evicted
                             orphan blocks: %d
                          wait sync blocks: %d
                          chain difficulty: %s of %s
                               XDAG supply: %.9f of %.9f
-                        4 hr hashrate MHs: %.9f of %.9f""",
+                        4 hr hashrate MHs: %.9f of %.9f
+                     signature cache hits: %.2f%% of %d""",
                 kernel.getNetDB().getSize(), kernel.getNetDBMgr().getWhiteDB().getSize(),
                 xdagStats.getNblocks(), Math.max(xdagStats.getTotalnblocks(), xdagStats.getNblocks()),
                 xdagStats.getNmain(), Math.max(xdagStats.getTotalnmain(), xdagStats.getNmain()),
                 xdagStats.nextra,
+                kernel.getBlockchain().getExtraBlockPool().size(),
+                kernel.getBlockchain().getExtraBlockPool().getCapacity(),
+                kernel.getBlockchain().getExtraBlockPool().getEvicted().get(),
                 xdagStats.nnoref,
                 xdagStats.nwaitsync,
 //                xdagTopStatus.getTopDiff()!=null?xdagTopStatus.getTopDiff().toString(16):"",
@@ -377,8 +376,30 @@ public class Commands {
                 amount2xdag(kernel.getBlockchain().getSupply(xdagStats.nmain)),
                 amount2xdag(kernel.getBlockchain().getSupply(Math.max(xdagStats.nmain, xdagStats.totalnmain))),
                 BasicUtils.xdagHashRate(kernel.getBlockchain().getXdagExtStats().getHashRateOurs()),
-                BasicUtils.xdagHashRate(kernel.getBlockchain().getXdagExtStats().getHashRateTotal())
+                BasicUtils.xdagHashRate(kernel.getBlockchain().getXdagExtStats().getHashRateTotal()),
+                Sign.getVerifyCacheStats().hitRate() * 100,
+                Sign.getVerifyCacheStats().requestCount()
         );
+        return stats + storeStats();
+    }
+
+    /**
+     * Storage metrics of every database, empty unless node.store.statistics is on
+     */
+    private String storeStats() {
+        if (kernel.getDbFactory() == null) {
+            return "";
+        }
+        Map<String, Map<String, Object>> metrics = kernel.getDbFactory().getMetrics();
+        if (metrics.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("\nStorage statistics:");
+        metrics.forEach((db, values) -> {
+            sb.append("\n").append(String.format("%25s:", db));
+            values.forEach((key, value) -> sb.append(" ").append(key).append("=").append(value));
+        });
+        return sb.toString();
     }
 
     /**
@@ -569,8 +590,13 @@ public class Commands {
 
     public String listConnect() {
         Map<Node, Long> map = kernel.getNodeMgr().getActiveNode();
+        Map<Node, MessageQueue> queues = new HashMap<>();
+        for (Channel channel : kernel.getChannelMgr().getActiveChannels()) {
+            queues.put(channel.getNode(), channel.getMessageQueue());
+        }
         StringBuilder stringBuilder = new StringBuilder();
         for (Node node : map.keySet()) {
+            MessageQueue queue = queues.get(node);
             stringBuilder
                     .append(node.getAddress())
                     .append(" ")
@@ -579,7 +605,12 @@ public class Commands {
                     .append(node.getStat().Inbound.get())
                     .append(" in/")
                     .append(node.getStat().Outbound.get())
-                    .append(" out").append(System.getProperty("line.separator"));
+                    .append(" out");
+            if (queue != null) {
+                stringBuilder.append(String.format(" queue:%d(%d bytes, max %d) sent:%d",
+                        queue.size(), queue.getQueuedBytes(), queue.getMaxQueuedMessages(), queue.getSentMessages()));
+            }
+            stringBuilder.append(System.getProperty("line.separator"));
         }
 
         return stringBuilder.toString();
@@ -644,18 +675,9 @@ public class Commands {
     }
 
     public static String getBalanceMaxXfer(Kernel kernel){
-        final Long[] balance = {0L};
-
-        kernel.getBlockStore().fetchOurBlocks(pair -> {
-            Block block = pair.getValue();
-            if (XdagTime.getCurrentEpoch() < XdagTime.getEpoch(block.getTimestamp()) + 2 * CONFIRMATIONS_COUNT) {
-                return false;
-            }
-            if(block.getInfo().getAmount()>0){
-                balance[0] +=block.getInfo().getAmount();
-            }
-            return false;
-        });
-        return String.format("%.9f", amount2xdag(balance[0]));
+        // 只有2 * CONFIRMATIONS_COUNT个epoch之前的区块可以转出
+        long maxTime = XdagTime.getEndOfEpoch((XdagTime.getCurrentEpoch() - 2 * CONFIRMATIONS_COUNT) << 16);
+        long balance = kernel.getBlockStore().getOurBlocksIndex().getTotalAmount(maxTime);
+        return String.format("%.9f", amount2xdag(balance));
     }
 }
@@ -51,6 +51,7 @@ import io.xdag.config.spec.WalletSpec;
 import io.xdag.core.XdagField;
 import io.xdag.crypto.DnetKeys;
 import io.xdag.crypto.jni.Native;
+import io.xdag.db.BlockStore;
 import io.xdag.rpc.modules.ModuleDescription;
 import lombok.Getter;
 import lombok.Setter;
@@ -110,6 +111,24 @@ public class AbstractConfig implements Config, AdminSpec, PoolSpec, NodeSpec, Wa
     protected int storeMaxOpenFiles = 1024;
     protected int storeMaxThreads = 1;
     protected boolean storeFromBackup = false;
+    protected long blockInfoCacheSize = BlockStore.DEFAULT_BLOCK_INFO_CACHE_SIZE;
+    protected long blockInfoCacheWeight = BlockStore.DEFAULT_BLOCK_INFO_CACHE_WEIGHT;
+    protected boolean storeColumnFamilies = false;
+    protected long storeSharedCacheSize = 256L * 1024 * 1024;
+    protected long storeBlockCacheSize = 32L * 1024 * 1024;
+    protected int storeBlockSize = 16 * 1024;
+    protected int storeBloomBitsPerKey = 10;
+    protected long storeWriteBufferSize = 0;
+    protected int storeMaxWriteBufferNumber = 0;
+    protected String storeCompactionStyle = "level";
+    protected String storeCompression = "lz4";
+    protected String storeBottommostCompression = "lz4";
+    protected boolean storePartitionedIndexFilters = false;
+    protected boolean storeDirectIoForCompaction = false;
+    protected long storeRateLimitBytesPerSec = 0;
+    protected boolean storeStatistics = false;
+    protected boolean nativeSecp256k1 = true;
+    protected long maxExtraBlocks = Constants.MAX_ALLOWED_EXTRA;
     protected String originStoreDir = "./testdate";
 
     protected String whitelistUrl;
@@ -263,6 +282,24 @@ public class AbstractConfig implements Config, AdminSpec, PoolSpec, NodeSpec, Wa
             nodeIp = config.getString("node.ip", "127.0.0.1");
             nodePort = config.getInt("node.port", 8001);
             maxInboundConnectionsPerIp = config.getInt("node.maxInboundConnectionsPerIp");
+            nativeSecp256k1 = config.getBoolean("node.nativeSecp256k1", nativeSecp256k1);
+            maxExtraBlocks = config.getLong("node.maxExtraBlocks", maxExtraBlocks);
+            blockInfoCacheSize = config.getLong("node.store.blockInfoCacheSize", BlockStore.DEFAULT_BLOCK_INFO_CACHE_SIZE);
+            blockInfoCacheWeight = config.getLong("node.store.blockInfoCacheWeight", BlockStore.DEFAULT_BLOCK_INFO_CACHE_WEIGHT);
+            storeColumnFamilies = config.getBoolean("node.store.columnFamilies", false);
+            storeSharedCacheSize = config.getLong("node.store.sharedCacheSize", storeSharedCacheSize);
+            storeBlockCacheSize = config.getLong("node.store.blockCacheSize", storeBlockCacheSize);
+            storeBlockSize = config.getInt("node.store.blockSize", storeBlockSize);
+            storeBloomBitsPerKey = config.getInt("node.store.bloomBitsPerKey", storeBloomBitsPerKey);
+            storeWriteBufferSize = config.getLong("node.store.writeBufferSize", storeWriteBufferSize);
+            storeMaxWriteBufferNumber = config.getInt("node.store.maxWriteBufferNumber", storeMaxWriteBufferNumber);
+            storeCompactionStyle = config.getString("node.store.compactionStyle", storeCompactionStyle);
+            storeCompression = config.getString("node.store.compression", storeCompression);
+            storeBottommostCompression = config.getString("node.store.bottommostCompression", storeBottommostCompression);
+            storePartitionedIndexFilters = config.getBoolean("node.store.partitionedIndexFilters", storePartitionedIndexFilters);
+            storeDirectIoForCompaction = config.getBoolean("node.store.directIoForCompaction", storeDirectIoForCompaction);
+            storeRateLimitBytesPerSec = config.getLong("node.store.rateLimitBytesPerSec", storeRateLimitBytesPerSec);
+            storeStatistics = config.getBoolean("node.store.statistics", storeStatistics);
 
             String[] whiteIpArray = config.get(String[].class, "node.whiteIPs");
             if (whiteIpArray != null) {
@@ -59,12 +59,34 @@ public class Constants {
      */
     public static final byte BI_EXTRA = 0x40;
     public static final byte BI_REMARK = (byte) 0x80;
-    public static final Long SEND_PERIOD = 2L;
     public static final int DNET_PKT_XDAG = 0x8B;
     public static final int BLOCK_HEAD_WORD = 0x3fca9e2b;
     public static final long REQUEST_BLOCKS_MAX_TIME = UnsignedLong.fromLongBits(1L << 20).longValue();
     public static final long REQUEST_WAIT = 64;
+    /**
+     * 同步时每个节点初始/最大的并发请求数
+     */
+    public static final int REQUEST_WINDOW_INIT = 4;
+    public static final int REQUEST_WINDOW_MAX = 32;
+    /**
+     * 同步请求超时后最多重试(换节点)的次数
+     */
+    public static final int REQUEST_MAX_RETRY = 3;
+    /**
+     * 应答区块请求时单个节点发送队列中最多积压的消息数
+     */
+    public static final int BLOCKS_REPLY_BUDGET = 128;
+    /**
+     * 发送队列每次flush最多写出的字节数, 以及暂停/恢复生产者的高低水位
+     */
+    public static final int MSG_QUEUE_BATCH_BYTES = 64 * 1024;
+    public static final long MSG_QUEUE_HIGH_WATER = 1024 * 1024;
+    public static final long MSG_QUEUE_LOW_WATER = 512 * 1024;
     public static final long MAX_ALLOWED_EXTRA = 65536;
+    /**
+     * 内存中保留的最近主块数量
+     */
+    public static final int MAIN_BLOCK_WINDOW = 8192;
     /**
      * 每一轮的确认数是16
      */
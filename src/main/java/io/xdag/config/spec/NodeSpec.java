@@ -86,6 +86,87 @@ public interface NodeSpec {
 
     boolean isStoreFromBackup();
 
+    /**
+     * max number of deserialized block infos kept in memory
+     */
+    long getBlockInfoCacheSize();
+
+    /**
+     * max estimated heap bytes of deserialized block infos kept in memory
+     */
+    long getBlockInfoCacheWeight();
+
+    /**
+     * host index, block, time, txhistory and orphan dbs as column families of one rocksdb instance
+     */
+    boolean isStoreColumnFamilies();
+
+    /**
+     * block cache shared by all column families, write buffers are charged against it
+     */
+    long getStoreSharedCacheSize();
+
+    /**
+     * block cache of each standalone db
+     */
+    long getStoreBlockCacheSize();
+
+    int getStoreBlockSize();
+
+    /**
+     * bloom filter bits per key, 0 disables the filter
+     */
+    int getStoreBloomBitsPerKey();
+
+    /**
+     * memtable size, 0 keeps the rocksdb default
+     */
+    long getStoreWriteBufferSize();
+
+    /**
+     * max number of memtables, 0 keeps the rocksdb default
+     */
+    int getStoreMaxWriteBufferNumber();
+
+    /**
+     * level, universal or fifo
+     */
+    String getStoreCompactionStyle();
+
+    /**
+     * none, snappy, zlib, lz4, lz4hc or zstd
+     */
+    String getStoreCompression();
+
+    /**
+     * compression of the bottommost level, same names as {@link #getStoreCompression()}
+     */
+    String getStoreBottommostCompression();
+
+    boolean isStorePartitionedIndexFilters();
+
+    boolean isStoreDirectIoForCompaction();
+
+    /**
+     * rate limit of flush and compaction writes, 0 for unlimited
+     */
+    long getStoreRateLimitBytesPerSec();
+
+    /**
+     * collect rocksdb tickers and per-operation latencies of every database
+     */
+    boolean isStoreStatistics();
+
+    /**
+     * verify and sign with the native libsecp256k1 backend when it can be loaded
+     */
+    boolean isNativeSecp256k1();
+
+    /**
+     * extra blocks kept in memory waiting to be linked, the oldest and least difficult are dropped beyond it
+     */
+    long getMaxExtraBlocks();
+
     /**
      * 用于测试加载已有区块数据 从C版本生成的数据 请将所需要的数据放在该目录下
      */
@@ -38,14 +38,21 @@ import io.xdag.utils.XdagTime;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.FastDateFormat;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.tuweni.bytes.Bytes32;
 
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -56,6 +63,7 @@ import static io.xdag.core.ImportResult.*;
 @Setter
 public class SyncManager {
     public static final int MAX_SIZE = 100000;
+    public static final int MAX_PIPELINE_BLOCKS = 4096;
     private Kernel kernel;
     private Blockchain blockchain;
     private long importStart;
@@ -80,6 +88,33 @@ public class SyncManager {
      */
     private ConcurrentLinkedQueue<Bytes32> syncQueue = new ConcurrentLinkedQueue<>();
 
+    /**
+     * blocks submitted to the import pipeline and not imported yet, bounds the memory of the pipeline and
+     * slows down the peers feeding it
+     */
+    private final Semaphore pipelineSlots = new Semaphore(MAX_PIPELINE_BLOCKS);
+    /**
+     * peers waiting for a pipeline slot, they stopped reading until one frees up
+     */
+    private final Queue<Runnable> slotWaiters = new ConcurrentLinkedQueue<>();
+    /**
+     * parses, hashes and verifies signatures of received blocks in parallel
+     */
+    private final ExecutorService validateExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new BasicThreadFactory.Builder()
+                    .namingPattern("SyncManager-validate-thread-%d")
+                    .daemon(true)
+                    .build());
+    /**
+     * applies the pre-validated blocks to the chain one at a time in the order they were received
+     */
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("SyncManager-import-thread")
+            .daemon(true)
+            .build());
+    private final Object importTailLock = new Object();
+    private CompletableFuture<Void> importTail = CompletableFuture.completedFuture(null);
+
     public SyncManager(Kernel kernel) {
         this.kernel = kernel;
         this.blockchain = kernel.getBlockchain();
@@ -129,8 +164,9 @@ public class SyncManager {
     public ImportResult importBlock(BlockWrapper blockWrapper) {
         log.debug("importBlock:{}", blockWrapper.getBlock().getHash().toHexString());
 
-        ImportResult importResult = blockchain
-                .tryToConnect(new Block(new XdagBlock(blockWrapper.getBlock().getXdagBlock().getData().toArray())));
+        Block block = new Block(new XdagBlock(blockWrapper.getBlock().getXdagBlock().getData().toArray()));
+        block.copyVerifiedKeys(blockWrapper.getBlock());
+        ImportResult importResult = blockchain.tryToConnect(block);
 
         if (importResult == EXIST) {
             log.debug("Block have exist:" + blockWrapper.getBlock().getHash().toHexString());
@@ -171,6 +207,70 @@ public class SyncManager {
         return importResult;
     }
 
+    /**
+     * Import a received block through the pipeline: the stateless checks run on the validate pool, then the
+     * block is handed to the single import thread in arrival order. Never blocks, it is called from the netty
+     * event loop.
+     *
+     * @return false when the pipeline is full and the block was not taken, see {@link #onPipelineSlot(Runnable)}
+     */
+    public boolean trySubmitNewBlock(BlockWrapper blockWrapper) {
+        if (!pipelineSlots.tryAcquire()) {
+            return false;
+        }
+        CompletableFuture<Pair<ImportResult, String>> validated;
+        try {
+            validated = CompletableFuture.supplyAsync(
+                    () -> blockchain.preValidate(blockWrapper.getBlock()), validateExecutor);
+        } catch (RejectedExecutionException e) {
+            releasePipelineSlot();
+            return true;
+        }
+        synchronized (importTailLock) {
+            importTail = importTail.thenCombineAsync(validated, (v, error) -> {
+                try {
+                    if (error == null) {
+                        validateAndAddNewBlock(blockWrapper);
+                    } else {
+                        log.debug("drop block:{}, {} {}", blockWrapper.getBlock().getHashLow().toHexString(),
+                                error.getLeft(), error.getRight());
+                    }
+                } catch (Throwable t) {
+                    log.error(t.getMessage(), t);
+                } finally {
+                    releasePipelineSlot();
+                }
+                return null;
+            }, importExecutor);
+        }
+        return true;
+    }
+
+    /**
+     * Run waiter once a pipeline slot is free, right away if one already is. The waiter runs on the thread
+     * that freed the slot and should only hand off to its own executor.
+     */
+    public void onPipelineSlot(Runnable waiter) {
+        slotWaiters.add(waiter);
+        notifySlotWaiters();
+    }
+
+    private void releasePipelineSlot() {
+        pipelineSlots.release();
+        notifySlotWaiters();
+    }
+
+    private void notifySlotWaiters() {
+        Runnable waiter;
+        while (pipelineSlots.availablePermits() > 0 && (waiter = slotWaiters.poll()) != null) {
+            try {
+                waiter.run();
+            } catch (Throwable t) {
+                log.error(t.getMessage(), t);
+            }
+        }
+    }
+
     public synchronized ImportResult validateAndAddNewBlock(BlockWrapper blockWrapper) {
         blockWrapper.getBlock().parse();
         ImportResult result = importBlock(blockWrapper);
@@ -326,6 +426,8 @@ public class SyncManager {
         if (this.stateListener.isRunning) {
             this.stateListener.isRunning = false;
         }
+        validateExecutor.shutdownNow();
+        importExecutor.shutdownNow();
     }
 
     public void distributeBlock(BlockWrapper blockWrapper) {
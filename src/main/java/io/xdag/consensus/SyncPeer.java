@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.consensus;
+
+import static io.xdag.config.Constants.REQUEST_WINDOW_INIT;
+import static io.xdag.config.Constants.REQUEST_WINDOW_MAX;
+
+import io.xdag.net.Channel;
+import lombok.Getter;
+
+/**
+ * Per-peer state of the sums/blocks reconciliation: an AIMD window bounding the
+ * requests in flight to this peer, and the counters used to rank peers.
+ *
+ * Only the sync thread updates it; the fields are volatile so that stats can be read elsewhere.
+ */
+@Getter
+public class SyncPeer {
+
+    private final Channel channel;
+    private final long createTime;
+
+    private volatile int window = REQUEST_WINDOW_INIT;
+    private volatile int inFlight;
+    private volatile long requests;
+    private volatile long replies;
+    private volatile long timeouts;
+    /**
+     * smoothed round trip time in milliseconds
+     */
+    private volatile long rtt;
+
+    public SyncPeer(Channel channel) {
+        this.channel = channel;
+        this.createTime = System.currentTimeMillis();
+    }
+
+    public boolean isAvailable() {
+        return inFlight < window;
+    }
+
+    public void onRequest() {
+        inFlight++;
+        requests++;
+    }
+
+    public void onReply(long elapsed) {
+        inFlight--;
+        replies++;
+        rtt = rtt == 0 ? elapsed : (rtt * 7 + elapsed) / 8;
+        if (window < REQUEST_WINDOW_MAX) {
+            window++;
+        }
+    }
+
+    public void onTimeout() {
+        inFlight--;
+        timeouts++;
+        window = Math.max(1, window / 2);
+    }
+
+    /**
+     * 请求被放弃(本轮结束)时归还窗口, 不计入超时
+     */
+    public void onCancel() {
+        inFlight--;
+    }
+
+    /**
+     * replies per second since this peer was first used
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - createTime;
+        return elapsed <= 0 ? 0 : replies * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s window:%d inFlight:%d replies:%d timeouts:%d rtt:%dms throughput:%.2f/s",
+                channel, window, inFlight, replies, timeouts, rtt, getThroughput());
+    }
+}
@@ -25,30 +25,40 @@
 package io.xdag.consensus;
 
 import static io.xdag.config.Constants.REQUEST_BLOCKS_MAX_TIME;
+import static io.xdag.config.Constants.REQUEST_MAX_RETRY;
 import static io.xdag.config.Constants.REQUEST_WAIT;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import io.xdag.Kernel;
 import io.xdag.db.BlockStore;
 import io.xdag.net.Channel;
+import io.xdag.net.handler.Xdag;
 import io.xdag.net.manager.XdagChannelManager;
 
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.RandomUtils;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.MutableBytes;
 
@@ -71,6 +81,12 @@ public class XdagSync {
     private final ConcurrentHashMap<Long, SettableFuture<Bytes>> sumsRequestMap;
     @Getter
     private final ConcurrentHashMap<Long, SettableFuture<Bytes>> blocksRequestMap;
+    @Getter
+    private final ConcurrentHashMap<Channel, SyncPeer> syncPeers;
+    /**
+     * 已收到应答的请求, 由同步线程处理
+     */
+    private final BlockingQueue<SyncRequest> completed;
 
     private Status status;
     private ScheduledFuture<?> sendFuture;
@@ -82,6 +98,8 @@ public class XdagSync {
         sendTask = new ScheduledThreadPoolExecutor(1, factory);
         sumsRequestMap = new ConcurrentHashMap<>();
         blocksRequestMap = new ConcurrentHashMap<>();
+        syncPeers = new ConcurrentHashMap<>();
+        completed = new LinkedBlockingQueue<>();
     }
 
     /**
@@ -108,58 +126,163 @@ public class XdagSync {
         log.debug("End syncLoop");
     }
 
+    /**
+     * 对[t, t + dt)做sums对账: 不同的子区间继续请求sums, 到REQUEST_BLOCKS_MAX_TIME以内则请求区块.
+     * 请求分散到所有活跃节点, 每个节点受自身窗口限制, 超时的请求换节点重试.
+     */
     private void requestBlocks(long t, long dt) {
-        // 如果当前状态不是sync start
-        if (status != Status.SYNCING) {
-            return;
-        }
-        List<Channel> any = getAnyNode();
-        long randomSeq;
-        SettableFuture<Bytes> sf = SettableFuture.create();
-        if (any != null && any.size() != 0) {
-            // TODO:随机选一个
-            int index = RandomUtils.nextInt() % any.size();
-            Channel xc = any.get(index);
-            if (dt <= REQUEST_BLOCKS_MAX_TIME) {
-                randomSeq = xc.getXdag().sendGetBlocks(t, t + dt);
-                blocksRequestMap.put(randomSeq, sf);
-                try {
-                    sf.get(REQUEST_WAIT, TimeUnit.SECONDS);
-                } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                    blocksRequestMap.remove(randomSeq);
-                    log.error(e.getMessage(), e);
-                    return;
-                }
-                blocksRequestMap.remove(randomSeq);
-            } else {
-                MutableBytes lSums = MutableBytes.create(256);
-                Bytes rSums;
-                if (blockStore.loadSum(t, t + dt, lSums) <= 0) {
-                    return;
+        Deque<SyncTask> pending = new ArrayDeque<>();
+        Map<Long, SyncRequest> inFlight = new HashMap<>();
+        pending.add(new SyncTask(t, dt, 0, null));
+        try {
+            while (status == Status.SYNCING && (!pending.isEmpty() || !inFlight.isEmpty())) {
+                List<Channel> channels = getAnyNode();
+                if (channels == null || channels.isEmpty()) {
+                    break;
                 }
-                randomSeq = xc.getXdag().sendGetSums(t, t + dt);
-                sumsRequestMap.put(randomSeq, sf);
-                try {
-                    Bytes sums = sf.get(REQUEST_WAIT, TimeUnit.SECONDS);
-                    rSums = sums.copy();
-                } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                    sumsRequestMap.remove(randomSeq);
-                    log.error(e.getMessage(), e);
-                    return;
+                syncPeers.keySet().retainAll(channels);
+                dispatch(channels, pending, inFlight);
+
+                SyncRequest done = completed.poll(1, TimeUnit.SECONDS);
+                while (done != null) {
+                    onReply(done, pending, inFlight);
+                    done = completed.poll();
                 }
-                sumsRequestMap.remove(randomSeq);
-                dt >>= 4;
-                for (int i = 0; i < 16; i++) {
-                    long lSumsSum = lSums.getLong(i * 16, ByteOrder.LITTLE_ENDIAN);
-                    long lSumsSize = lSums.getLong(i * 16 + 8, ByteOrder.LITTLE_ENDIAN);
-                    long rSumsSum = rSums.getLong(i * 16, ByteOrder.LITTLE_ENDIAN);
-                    long rSumsSize = rSums.getLong(i * 16 + 8, ByteOrder.LITTLE_ENDIAN);
-
-                    if (lSumsSize != rSumsSize || lSumsSum != rSumsSum) {
-                        requestBlocks(t + i * dt, dt);
-                    }
+                expire(channels, pending, inFlight);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (SyncRequest req : inFlight.values()) {
+                removeRequest(req);
+                req.getPeer().onCancel();
+            }
+            completed.clear();
+            syncPeers.values().forEach(peer -> log.debug("sync peer {}", peer));
+        }
+    }
+
+    private void dispatch(List<Channel> channels, Deque<SyncTask> pending, Map<Long, SyncRequest> inFlight) {
+        while (!pending.isEmpty()) {
+            SyncTask task = pending.peekFirst();
+            if (!task.isBlocks() && task.getLocalSums() == null) {
+                MutableBytes lSums = MutableBytes.create(256);
+                if (blockStore.loadSum(task.getTime(), task.getTime() + task.getDt(), lSums) <= 0) {
+                    pending.pollFirst();
+                    continue;
                 }
+                task.setLocalSums(lSums);
+            }
+            SyncPeer peer = selectPeer(channels, task.getLastChannel());
+            if (peer == null) {
+                return;
             }
+            pending.pollFirst();
+
+            SettableFuture<Bytes> sf = SettableFuture.create();
+            Xdag xdag = peer.getChannel().getXdag();
+            long seq;
+            if (task.isBlocks()) {
+                seq = xdag.sendGetBlocks(task.getTime(), task.getTime() + task.getDt());
+                blocksRequestMap.put(seq, sf);
+            } else {
+                seq = xdag.sendGetSums(task.getTime(), task.getTime() + task.getDt());
+                sumsRequestMap.put(seq, sf);
+            }
+            peer.onRequest();
+            SyncRequest req = new SyncRequest(seq, task, peer, sf, System.currentTimeMillis());
+            inFlight.put(seq, req);
+            sf.addListener(() -> completed.offer(req), MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * 选择窗口未满且在途请求最少的节点, 尽量避开上次失败的节点
+     */
+    private SyncPeer selectPeer(List<Channel> channels, Channel exclude) {
+        SyncPeer best = null;
+        SyncPeer fallback = null;
+        for (Channel channel : channels) {
+            SyncPeer peer = syncPeers.computeIfAbsent(channel, SyncPeer::new);
+            if (!peer.isAvailable()) {
+                continue;
+            }
+            if (channel == exclude) {
+                fallback = peer;
+                continue;
+            }
+            if (best == null || peer.getInFlight() < best.getInFlight()
+                    || (peer.getInFlight() == best.getInFlight() && peer.getRtt() < best.getRtt())) {
+                best = peer;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    private void onReply(SyncRequest req, Deque<SyncTask> pending, Map<Long, SyncRequest> inFlight) {
+        // 已超时处理过的迟到应答
+        if (inFlight.remove(req.getSeq()) == null) {
+            return;
+        }
+        removeRequest(req);
+        req.getPeer().onReply(System.currentTimeMillis() - req.getSendTime());
+
+        SyncTask task = req.getTask();
+        if (task.isBlocks()) {
+            return;
+        }
+        Bytes rSums;
+        try {
+            rSums = req.getFuture().get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error(e.getMessage(), e);
+            return;
+        }
+        MutableBytes lSums = task.getLocalSums();
+        long dt = task.getDt() >> 4;
+        // 倒序压入队首, 保证按时间先后处理
+        for (int i = 15; i >= 0; i--) {
+            long lSumsSum = lSums.getLong(i * 16, ByteOrder.LITTLE_ENDIAN);
+            long lSumsSize = lSums.getLong(i * 16 + 8, ByteOrder.LITTLE_ENDIAN);
+            long rSumsSum = rSums.getLong(i * 16, ByteOrder.LITTLE_ENDIAN);
+            long rSumsSize = rSums.getLong(i * 16 + 8, ByteOrder.LITTLE_ENDIAN);
+
+            if (lSumsSize != rSumsSize || lSumsSum != rSumsSum) {
+                pending.addFirst(new SyncTask(task.getTime() + i * dt, dt, 0, null));
+            }
+        }
+    }
+
+    /**
+     * 超时或节点已断开的请求换节点重试
+     */
+    private void expire(List<Channel> channels, Deque<SyncTask> pending, Map<Long, SyncRequest> inFlight) {
+        long now = System.currentTimeMillis();
+        Iterator<SyncRequest> it = inFlight.values().iterator();
+        while (it.hasNext()) {
+            SyncRequest req = it.next();
+            if (now - req.getSendTime() < REQUEST_WAIT * 1000 && channels.contains(req.getPeer().getChannel())) {
+                continue;
+            }
+            it.remove();
+            removeRequest(req);
+            req.getPeer().onTimeout();
+            SyncTask task = req.getTask();
+            if (task.getRetry() + 1 < REQUEST_MAX_RETRY) {
+                pending.addFirst(new SyncTask(task.getTime(), task.getDt(), task.getRetry() + 1,
+                        req.getPeer().getChannel()));
+            } else {
+                log.error("sync request [{}, {}) timeout after {} retries", task.getTime(),
+                        task.getTime() + task.getDt(), REQUEST_MAX_RETRY);
+            }
+        }
+    }
+
+    private void removeRequest(SyncRequest req) {
+        if (req.getTask().isBlocks()) {
+            blocksRequestMap.remove(req.getSeq());
+        } else {
+            sumsRequestMap.remove(req.getSeq());
         }
     }
 
@@ -191,6 +314,40 @@ public class XdagSync {
         return isRunning;
     }
 
+    @Getter
+    private static class SyncTask {
+        private final long time;
+        private final long dt;
+        private final int retry;
+        /**
+         * 上一次失败的节点, 重试时尽量避开
+         */
+        private final Channel lastChannel;
+        @Setter
+        private MutableBytes localSums;
+
+        SyncTask(long time, long dt, int retry, Channel lastChannel) {
+            this.time = time;
+            this.dt = dt;
+            this.retry = retry;
+            this.lastChannel = lastChannel;
+        }
+
+        boolean isBlocks() {
+            return dt <= REQUEST_BLOCKS_MAX_TIME;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class SyncRequest {
+        private final long seq;
+        private final SyncTask task;
+        private final SyncPeer peer;
+        private final SettableFuture<Bytes> future;
+        private final long sendTime;
+    }
+
     public enum Status {
         /**
          * syncing
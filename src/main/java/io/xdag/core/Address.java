@@ -24,7 +24,6 @@
 
 package io.xdag.core;
 
-import io.xdag.utils.BytesUtils;
 import java.math.BigInteger;
 import lombok.Getter;
 import lombok.Setter;
@@ -47,18 +46,21 @@ public class Address {
     /**
      * 转账金额（输入or输出）
      */
-    protected BigInteger amount;
+    protected long amount;
     /**
      * 地址hash低192bit
      */
     protected MutableBytes32 hashLow;
 
-    protected boolean parsed = false;
+    /**
+     * hashLow and amount are only decoded from data on first use. Written after them, so a thread that sees it
+     * set also sees both fields, a thread that doesn't decodes them again to the same values.
+     */
+    protected volatile boolean parsed = false;
 
     public Address(XdagField field) {
         this.type = field.getType();
         this.data = MutableBytes32.wrap(field.getData().reverse().mutableCopy());
-        parse();
     }
 
     /**
@@ -66,7 +68,7 @@ public class Address {
      */
     public Address(Bytes32 hashLow) {
         this.hashLow = hashLow.mutableCopy();
-        this.amount = BigInteger.valueOf(0);
+        this.amount = 0;
         parsed = true;
     }
 
@@ -75,20 +77,19 @@ public class Address {
      */
     public Address(Block block) {
         this.hashLow = block.getHashLow().mutableCopy();
-        this.amount = BigInteger.valueOf(0);
+        this.amount = 0;
         parsed = true;
     }
 
     public Address(Bytes32 blockHashlow, XdagField.FieldType type) {
         this.type = type;
         this.data = blockHashlow.mutableCopy();
-        parse();
     }
 
     public Address(Bytes32 blockHashLow, XdagField.FieldType type, long amount) {
         this.type = type;
         this.hashLow = blockHashLow.mutableCopy();
-        this.amount = BigInteger.valueOf(amount);
+        this.amount = amount;
         parsed = true;
     }
 
@@ -96,21 +97,30 @@ public class Address {
         if (this.data == null) {
             this.data = MutableBytes32.create();
             this.data.set(8, this.hashLow.slice(8, 24));
-            this.data.set(0, Bytes.wrap(BytesUtils.bigIntegerToBytes(amount, 8)));
+            this.data.setLong(0, amount);
         }
         return this.data;
     }
 
     public void parse() {
         if (!parsed) {
-            this.hashLow = MutableBytes32.create();
-            this.hashLow.set(8, this.data.slice(8, 24));
-            this.amount = this.data.slice(0, 8).toBigInteger();
+            MutableBytes32 hashLow = MutableBytes32.create();
+            hashLow.set(8, this.data.slice(8, 24));
+            this.hashLow = hashLow;
+            this.amount = this.data.getLong(0);
             this.parsed = true;
         }
     }
 
     public BigInteger getAmount() {
+        parse();
+        return BigInteger.valueOf(this.amount);
+    }
+
+    /**
+     * the raw 8 bytes amount, same value as {@link #getAmount()} without allocating a BigInteger
+     */
+    public long getAmountLong() {
         parse();
         return this.amount;
     }
@@ -122,6 +132,6 @@ public class Address {
 
     @Override
     public String toString() {
-        return "Block Hash[" + hashLow.toHexString() + "]";
+        return "Block Hash[" + getHashLow().toHexString() + "]";
     }
 }
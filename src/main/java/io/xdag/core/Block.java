@@ -32,6 +32,7 @@ import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_SIGN_IN;
 import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_SIGN_OUT;
 
 import io.xdag.config.Config;
+import io.xdag.crypto.BatchVerifier;
 import io.xdag.crypto.Hash;
 import io.xdag.crypto.Sign;
 import io.xdag.utils.BytesUtils;
@@ -40,11 +41,12 @@ import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -55,7 +57,6 @@ import org.apache.tuweni.bytes.Bytes32;
 import org.apache.tuweni.bytes.MutableBytes;
 import org.apache.tuweni.bytes.MutableBytes32;
 import org.hyperledger.besu.crypto.KeyPair;
-import org.bouncycastle.math.ec.ECPoint;
 import org.hyperledger.besu.crypto.SECPPublicKey;
 import org.hyperledger.besu.crypto.SECPSignature;
 
@@ -74,15 +75,15 @@ public class Block implements Cloneable {
     /**
      * 区块的links 列表 输入输出*
      */
-    private List<Address> inputs = new CopyOnWriteArrayList<>();
+    private List<Address> inputs = new ArrayList<>();
     /**
      * ouput包含pretop
      */
-    private List<Address> outputs = new CopyOnWriteArrayList<>();
+    private List<Address> outputs = new ArrayList<>();
     /**
      * 记录公钥 前缀+压缩公钥*
      */
-    private List<SECPPublicKey> pubKeys = new CopyOnWriteArrayList<>();
+    private List<SECPPublicKey> pubKeys = new ArrayList<>();
     private Map<SECPSignature, Integer> insigs = new LinkedHashMap<>();
     private SECPSignature outsig;
     /**
@@ -100,6 +101,24 @@ public class Block implements Cloneable {
     @Getter
     @Setter
     private BigInteger pretopCandidateDiff;
+    /**
+     * result of {@link #verifiedKeys()}, dropped when the block is signed or parsed again
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile List<SECPPublicKey> verifiedKeys;
+    /**
+     * result of {@link #getLinks()}, dropped when the block is parsed again
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile List<Address> links;
+    /**
+     * public keys, signatures and nonce of a parsed block are only decoded when first used, see {@link #parseKeys()}
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile boolean keysParsed = true;
 
     public Block(
             Config config,
@@ -230,6 +249,9 @@ public class Block implements Cloneable {
         if (this.info == null) {
             this.info = new BlockInfo();
         }
+        this.verifiedKeys = null;
+        this.links = null;
+        this.keysParsed = false;
         this.info.setHash(calcHash());
         Bytes32 header = Bytes32.wrap(xdagBlock.getField(0).getData());
 //        this.transportHeader = BytesUtils.bytesToLong(header, 0, true);
@@ -246,62 +268,80 @@ public class Block implements Cloneable {
                 throw new IllegalArgumentException("xdagBlock field:" + i + " is null");
             }
             switch (field.getType()) {
-            case XDAG_FIELD_IN -> inputs.add(new Address(xdagBlock.getField(i)));
+            case XDAG_FIELD_IN -> inputs.add(new Address(field));
             case XDAG_FIELD_OUT -> outputs.add(new Address(field));
             case XDAG_FIELD_REMARK -> this.info.setRemark(field.getData().toArray());
-            case XDAG_FIELD_SIGN_IN, XDAG_FIELD_SIGN_OUT -> {
-                BigInteger r;
-                BigInteger s;
-                int j, signo_s = -1;
-                XdagField ixf;
-                for (j = i; j < XdagBlock.XDAG_BLOCK_FIELDS; ++j) {
-                    ixf = xdagBlock.getField(j);
-                    if (ixf.getType().ordinal() == XDAG_FIELD_SIGN_IN.ordinal()
-                            || ixf.getType() == XDAG_FIELD_SIGN_OUT) {
-                        if (j > i && signo_s < 0 && ixf.getType().ordinal() == xdagBlock.getField(i).getType()
-                                .ordinal()) {
-                            signo_s = j;
-                            r = xdagBlock.getField(i).getData().toUnsignedBigInteger();
-                            s = xdagBlock.getField(signo_s).getData().toUnsignedBigInteger();
-
-                            // r and s are 0, the signature is illegal or it is a pseudo block sent by the miner
-                            if(r.compareTo(BigInteger.ZERO) == 0 && s.compareTo(BigInteger.ZERO) == 0){
-                                r = BigInteger.ONE;
-                                s = BigInteger.ONE;
-                            }
+            default -> {
+            }
+            //                    log.debug("no match xdagBlock field type:" + field.getType());
+            }
+        }
+        this.parsed = true;
+    }
 
-                            SECPSignature tmp = SECPSignature.create(r, s, (byte) 0, Sign.CURVE.getN());
-                            if (ixf.getType().ordinal() == XDAG_FIELD_SIGN_IN.ordinal()) {
-                                insigs.put(tmp, i);
-                            } else {
-                                outsig = tmp;
+    /**
+     * 解析签名 公钥和nonce字段，多数从库里读出的区块只会用到links*
+     */
+    private void parseKeys() {
+        if (keysParsed) {
+            return;
+        }
+        synchronized (this) {
+            if (keysParsed) {
+                return;
+            }
+            for (int i = 1; i < XdagBlock.XDAG_BLOCK_FIELDS; i++) {
+                XdagField field = xdagBlock.getField(i);
+                switch (field.getType()) {
+                case XDAG_FIELD_SIGN_IN, XDAG_FIELD_SIGN_OUT -> {
+                    BigInteger r;
+                    BigInteger s;
+                    int j, signo_s = -1;
+                    XdagField ixf;
+                    for (j = i; j < XdagBlock.XDAG_BLOCK_FIELDS; ++j) {
+                        ixf = xdagBlock.getField(j);
+                        if (ixf.getType().ordinal() == XDAG_FIELD_SIGN_IN.ordinal()
+                                || ixf.getType() == XDAG_FIELD_SIGN_OUT) {
+                            if (j > i && signo_s < 0 && ixf.getType().ordinal() == xdagBlock.getField(i).getType()
+                                    .ordinal()) {
+                                signo_s = j;
+                                r = xdagBlock.getField(i).getData().toUnsignedBigInteger();
+                                s = xdagBlock.getField(signo_s).getData().toUnsignedBigInteger();
+
+                                // r and s are 0, the signature is illegal or it is a pseudo block sent by the miner
+                                if(r.compareTo(BigInteger.ZERO) == 0 && s.compareTo(BigInteger.ZERO) == 0){
+                                    r = BigInteger.ONE;
+                                    s = BigInteger.ONE;
+                                }
+
+                                SECPSignature tmp = SECPSignature.create(r, s, (byte) 0, Sign.CURVE.getN());
+                                if (ixf.getType().ordinal() == XDAG_FIELD_SIGN_IN.ordinal()) {
+                                    insigs.put(tmp, i);
+                                } else {
+                                    outsig = tmp;
+                                }
                             }
                         }
                     }
+                    if (i == MAX_LINKS && field.getType().ordinal() == XDAG_FIELD_SIGN_IN.ordinal()) {
+                        this.nonce = Bytes32.wrap(xdagBlock.getField(i).getData());
+                    }
+                }
+                case XDAG_FIELD_PUBLIC_KEY_0, XDAG_FIELD_PUBLIC_KEY_1 -> {
+                    Bytes key = xdagBlock.getField(i).getData();
+                    boolean yBit = (field.getType().ordinal() == XDAG_FIELD_PUBLIC_KEY_1.ordinal());
+                    pubKeys.add(Sign.decompressPublicKey(key, yBit));
+                }
+                default -> {
                 }
-                if (i == MAX_LINKS && field.getType().ordinal() == XDAG_FIELD_SIGN_IN.ordinal()) {
-                    this.nonce = Bytes32.wrap(xdagBlock.getField(i).getData());
                 }
             }
-            case XDAG_FIELD_PUBLIC_KEY_0, XDAG_FIELD_PUBLIC_KEY_1 -> {
-                Bytes key = xdagBlock.getField(i).getData();
-                boolean yBit = (field.getType().ordinal() == XDAG_FIELD_PUBLIC_KEY_1.ordinal());
-                ECPoint point = Sign.decompressKey(key.toUnsignedBigInteger(), yBit);
-                // 解析成非压缩去前缀 公钥
-                byte[] encodePub = point.getEncoded(false);
-                SECPPublicKey publicKey = SECPPublicKey.create(
-                        new BigInteger(1, Arrays.copyOfRange(encodePub, 1, encodePub.length)), Sign.CURVE_NAME);
-                pubKeys.add(publicKey);
-            }
-            default -> {
-            }
-            //                    log.debug("no match xdagBlock field type:" + field.getType());
-            }
+            keysParsed = true;
         }
-        this.parsed = true;
     }
 
     public byte[] toBytes() {
+        parseKeys();
         SimpleEncoder encoder = new SimpleEncoder();
         encoder.write(getEncodedBody());
 
@@ -332,17 +372,14 @@ public class Block implements Cloneable {
     private byte[] getEncodedBody() {
         SimpleEncoder encoder = new SimpleEncoder();
         encoder.writeField(getEncodedHeader());
-        List<Address> all = new ArrayList<>();
-        all.addAll(inputs);
-        all.addAll(outputs);
-        for (Address link : all) {
+        for (Address link : getLinks()) {
             encoder.writeField(link.getData().reverse().toArray());
         }
         if (info.getRemark() != null) {
             encoder.write(info.getRemark());
         }
         for (SECPPublicKey publicKey : pubKeys) {
-            byte[] pubkeyBytes = publicKey.asEcPoint(Sign.CURVE).getEncoded(true);
+            byte[] pubkeyBytes = Sign.compressPublicKey(publicKey);
             byte[] key = BytesUtils.subArray(pubkeyBytes, 1, 32);
             encoder.writeField(key);
         }
@@ -375,15 +412,17 @@ public class Block implements Cloneable {
     }
 
     private void sign(KeyPair ecKey, XdagField.FieldType type) {
+        parseKeys();
         byte[] encoded = toBytes();
         // log.debug("sign encoded:{}", Hex.toHexString(encoded));
         // TODO： paulochen 是不是可以替换
-        byte[] pubkeyBytes = ecKey.getPublicKey().asEcPoint(Sign.CURVE).getEncoded(true);
+        byte[] pubkeyBytes = Sign.compressPublicKey(ecKey.getPublicKey());
         byte[] digest = BytesUtils.merge(encoded, pubkeyBytes);
         //log.debug("sign digest:{}", Hex.toHexString(digest));
         Bytes32 hash = Hash.hashTwice(Bytes.wrap(digest));
         //log.debug("sign hash:{}", Hex.toHexString(hash.toArray()));
         SECPSignature signature = Sign.SECP256K1.sign(hash, ecKey);
+        verifiedKeys = null;
         if (type == XDAG_FIELD_SIGN_OUT) {
             outsig = signature;
         } else {
@@ -395,28 +434,48 @@ public class Block implements Cloneable {
      * 只匹配输入签名 并返回有用的key
      */
     public List<SECPPublicKey> verifiedKeys() {
+        List<SECPPublicKey> res = verifiedKeys;
+        if (res == null) {
+            res = Collections.unmodifiableList(calcVerifiedKeys());
+            verifiedKeys = res;
+        }
+        return res;
+    }
+
+    /**
+     * Reuse the verified keys of a block parsed from the same raw data, so its signatures aren't checked twice.
+     */
+    public void copyVerifiedKeys(Block block) {
+        if (block.verifiedKeys != null && Objects.equals(block.getHash(), getHash())) {
+            verifiedKeys = block.verifiedKeys;
+        }
+    }
+
+    private List<SECPPublicKey> calcVerifiedKeys() {
         List<SECPPublicKey> keys = getPubKeys();
         List<SECPPublicKey> res = new ArrayList<>();
+        // every signature is checked against every key, all of them verified as one batch
+        List<BatchVerifier.Check> checks = new ArrayList<>();
         Bytes digest;
         Bytes32 hash;
         for (SECPSignature sig : this.getInsigs().keySet()) {
             digest = getSubRawData(this.getInsigs().get(sig) - 1);
             for (SECPPublicKey publicKey : keys) {
-                // TODO： paulochen 是不是可以替换
-                byte[] pubkeyBytes = publicKey.asEcPoint(Sign.CURVE).getEncoded(true);
+                byte[] pubkeyBytes = Sign.compressPublicKey(publicKey);
                 hash = Hash.hashTwice(Bytes.wrap(digest, Bytes.wrap(pubkeyBytes)));
-                if (Sign.SECP256K1.verify(hash, sig, publicKey)) {
-                    res.add(publicKey);
-                }
+                checks.add(new BatchVerifier.Check(hash, sig, publicKey));
             }
         }
         digest = getSubRawData(getOutsigIndex() - 2);
         for (SECPPublicKey publicKey : keys) {
-            // TODO： paulochen 是不是可以替换
-            byte[] pubkeyBytes = publicKey.asEcPoint(Sign.CURVE).getEncoded(true);
+            byte[] pubkeyBytes = Sign.compressPublicKey(publicKey);
             hash = Hash.hashTwice(Bytes.wrap(digest, Bytes.wrap(pubkeyBytes)));
-            if (Sign.SECP256K1.verify(hash, this.getOutsig(), publicKey)) {
-                res.add(publicKey);
+            checks.add(new BatchVerifier.Check(hash, this.getOutsig(), publicKey));
+        }
+        boolean[] verified = BatchVerifier.verify(checks);
+        for (int i = 0; i < checks.size(); i++) {
+            if (verified[i]) {
+                res.add(checks.get(i).getPublicKey());
             }
         }
         return res;
@@ -461,18 +520,32 @@ public class Block implements Cloneable {
     }
 
     public List<SECPPublicKey> getPubKeys() {
+        parseKeys();
         return pubKeys;
     }
 
     public Bytes32 getNonce() {
+        parseKeys();
         return nonce;
     }
 
+    public void setNonce(Bytes32 nonce) {
+        parseKeys();
+        this.nonce = nonce;
+    }
+
     public SECPSignature getOutsig() {
-        return outsig == null ? null : outsig;
+        parseKeys();
+        return outsig;
+    }
+
+    public void setOutsig(SECPSignature outsig) {
+        parseKeys();
+        this.outsig = outsig;
     }
 
     public Map<SECPSignature, Integer> getInsigs() {
+        parseKeys();
         return insigs;
     }
 
@@ -539,11 +612,19 @@ public class Block implements Cloneable {
         this.info.type |= typeByte << (n << 2);
     }
 
+    /**
+     * inputs followed by outputs, the returned list is read only and shared between callers
+     */
     public List<Address> getLinks() {
-        List<Address> links = new ArrayList<>();
-        links.addAll(getInputs());
-        links.addAll(getOutputs());
-        return links;
+        List<Address> res = links;
+        if (res == null) {
+            List<Address> all = new ArrayList<>(inputs.size() + outputs.size());
+            all.addAll(inputs);
+            all.addAll(outputs);
+            res = Collections.unmodifiableList(all);
+            links = res;
+        }
+        return res;
     }
 
     @Override
@@ -29,6 +29,7 @@ import io.xdag.listener.Listener;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.hyperledger.besu.crypto.KeyPair;
@@ -40,6 +41,15 @@ public interface Blockchain {
 
     ImportResult tryToConnect(Block block);
 
+    /**
+     * Stateless checks that need no lock and may run on any thread before {@link #tryToConnect(Block)}: parse
+     * and hash the block, check its type and time, and verify the signatures of its public keys, whose result
+     * is kept on the block.
+     *
+     * @return null when the block may be imported, otherwise the error result and why
+     */
+    Pair<ImportResult, String> preValidate(Block block);
+
     Block createNewBlock(Map<Address, KeyPair> pairs, List<Address> to, boolean mining, String remark);
 
     Block getBlockByHash(Bytes32 hash, boolean isRaw);
@@ -77,4 +87,6 @@ public interface Blockchain {
     List<TxHistory> getBlockTxHistoryByAddress(Bytes32 addressHashlow);
 
     XdagExtStats getXdagExtStats();
+
+    ExtraBlockPool getExtraBlockPool();
 }
@@ -25,6 +25,8 @@
 package io.xdag.core;
 
 import com.google.common.collect.Lists;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.primitives.UnsignedLong;
 import io.xdag.Kernel;
 import io.xdag.config.MainnetConfig;
@@ -50,6 +52,7 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.RandomUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.apache.tuweni.bytes.MutableBytes;
@@ -74,6 +77,8 @@ import static io.xdag.core.ImportResult.IMPORTED_BEST;
 import static io.xdag.core.ImportResult.IMPORTED_NOT_BEST;
 import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_HEAD;
 import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_HEAD_TEST;
+import static io.xdag.utils.BasicUtils.amountAddOverflows;
+import static io.xdag.utils.BasicUtils.compareAmount;
 import static io.xdag.utils.BasicUtils.getDiffByHash;
 import static io.xdag.utils.BasicUtils.getHashlowByHash;
 import static io.xdag.utils.BytesUtils.equalBytes;
@@ -82,6 +87,7 @@ import static io.xdag.utils.BytesUtils.equalBytes;
 @Getter
 public class BlockchainImpl implements Blockchain {
 
+    private static final long PREV_EPOCH_DIFF_CACHE_SIZE = 64 * 1024;
     private static final ThreadFactory factory = new ThreadFactory() {
         private final AtomicInteger cnt = new AtomicInteger(0);
 
@@ -98,8 +104,15 @@ public class BlockchainImpl implements Blockchain {
      */
     private final OrphanPool orphanPool;
 
-    private final LinkedHashMap<Bytes, Block> memOrphanPool = new LinkedHashMap<>();
+    private final ExtraBlockPool extraBlockPool;
     private final Map<Bytes, Integer> memOurBlocks = new ConcurrentHashMap<>();
+    private final MainBlockWindow mainBlockWindow = new MainBlockWindow(MAIN_BLOCK_WINDOW);
+    /**
+     * block hashlow -> difficulty of the first block before its epoch on its max difficulty chain
+     */
+    private final Cache<Bytes32, Optional<BigInteger>> prevEpochDiffs = Caffeine.newBuilder()
+            .maximumSize(PREV_EPOCH_DIFF_CACHE_SIZE)
+            .build();
     private final XdagStats xdagStats;
     private final Kernel kernel;
 
@@ -122,6 +135,7 @@ public class BlockchainImpl implements Blockchain {
         this.kernel = kernel;
         this.wallet = kernel.getWallet();
         this.xdagExtStats = new XdagExtStats();
+        this.extraBlockPool = new ExtraBlockPool(kernel.getConfig().getNodeSpec().getMaxExtraBlocks());
         // 1. init chain state from rocksdb
         this.blockStore = kernel.getBlockStore();
         this.orphanPool = kernel.getOrphanPool();
@@ -160,6 +174,7 @@ public class BlockchainImpl implements Blockchain {
             this.xdagTopStatus = Objects.requireNonNullElseGet(storedTopStatus, XdagTopStatus::new);
             preSeed = blockStore.getPreSeed();
         }
+        initMainBlockWindow();
 
         // add randomx utils
         randomXUtils = kernel.getRandomx();
@@ -172,6 +187,21 @@ public class BlockchainImpl implements Blockchain {
         this.startCheckMain(1024);
     }
 
+    /**
+     * 加载最近的主块到内存窗口*
+     */
+    private void initMainBlockWindow() {
+        long from = Math.max(1, xdagStats.nmain - MAIN_BLOCK_WINDOW + 1);
+        for (long height = from; height <= xdagStats.nmain; height++) {
+            Block block = blockStore.getBlockByHeight(height);
+            if (block == null) {
+                mainBlockWindow.clear();
+                continue;
+            }
+            mainBlockWindow.add(height, block.getHashLow());
+        }
+    }
+
     public void initSnapshotJ() {
         long start = System.currentTimeMillis();
         System.out.println("init snapshot...");
@@ -283,35 +313,83 @@ public class BlockchainImpl implements Blockchain {
      */
     @Override
     public synchronized ImportResult tryToConnect(Block block) {
+        // every write of one import reaches rocksdb as a single batch. A failed import is committed as well:
+        // the in-memory chain state (stats, top status, extra pool, caches) already reflects its writes.
+        beginBatch();
+        try {
+            return importBlock(block);
+        } finally {
+            commitBatch();
+        }
+    }
 
-        // TODO: if current height is snapshot height, we need change logic to process new block
+    private void beginBatch() {
+        blockStore.beginBatch();
+        orphanPool.beginBatch();
+    }
 
+    /**
+     * Commit the block store and the orphan pool together, atomically when they share one rocksdb instance.
+     */
+    private void commitBatch() {
+        // after the raw blocks, an orphan row must never point to a block that isn't stored
+        blockStore.commitBatch(Collections.singletonList(orphanPool.getBatchSource()));
+    }
+
+    @Override
+    public Pair<ImportResult, String> preValidate(Block block) {
         try {
-            ImportResult result = ImportResult.IMPORTED_NOT_BEST;
+            block.parse();
+            block.getHashLow();
+            Pair<ImportResult, String> result = checkHeader(block);
+            if (result != null) {
+                return result;
+            }
+            block.verifiedKeys();
+            return null;
+        } catch (Throwable t) {
+            log.error(t.getMessage(), t);
+            return Pair.of(ImportResult.ERROR, t.getMessage());
+        }
+    }
 
-            long type = block.getType() & 0xf;
-            if (kernel.getConfig() instanceof MainnetConfig) {
-                if (type != XDAG_FIELD_HEAD.asByte()) {
-                    result = ImportResult.ERROR;
-                    result.setErrorInfo("Block type error, is not a mainnet block");
-                    return result;
-                }
-            } else {
-                if (type != XDAG_FIELD_HEAD_TEST.asByte()) {
-                    result = ImportResult.ERROR;
-                    result.setErrorInfo("Block type error, is not a testnet block");
-                    return result;
-                }
+    /**
+     * block type and time range checks, null when they pass. The error text is returned next to the result
+     * rather than set on the shared ImportResult, since this also runs on the validate threads.
+     */
+    private Pair<ImportResult, String> checkHeader(Block block) {
+        long type = block.getType() & 0xf;
+        if (kernel.getConfig() instanceof MainnetConfig) {
+            if (type != XDAG_FIELD_HEAD.asByte()) {
+                return Pair.of(ImportResult.ERROR, "Block type error, is not a mainnet block");
+            }
+        } else {
+            if (type != XDAG_FIELD_HEAD_TEST.asByte()) {
+                return Pair.of(ImportResult.ERROR, "Block type error, is not a testnet block");
             }
+        }
 
-            if (block.getTimestamp() > (XdagTime.getCurrentTimestamp() + MAIN_CHAIN_PERIOD / 4)
-                    || block.getTimestamp() < kernel.getConfig().getXdagEra()
+        if (block.getTimestamp() > (XdagTime.getCurrentTimestamp() + MAIN_CHAIN_PERIOD / 4)
+                || block.getTimestamp() < kernel.getConfig().getXdagEra()
 //                    || (limit && timestamp - tmpNodeBlock.time > limit)
-            ) {
-                result = ImportResult.INVALID_BLOCK;
-                result.setErrorInfo("Block's time is illegal");
+        ) {
+            return Pair.of(ImportResult.INVALID_BLOCK, "Block's time is illegal");
+        }
+        return null;
+    }
+
+    private ImportResult importBlock(Block block) {
+
+        // TODO: if current height is snapshot height, we need change logic to process new block
+
+        try {
+            Pair<ImportResult, String> header = checkHeader(block);
+            if (header != null) {
+                ImportResult result = header.getLeft();
+                result.setErrorInfo(header.getRight());
                 return result;
             }
+            ImportResult result = ImportResult.IMPORTED_NOT_BEST;
 
             if (isExist(block.getHashLow())) {
                 return ImportResult.EXIST;
@@ -346,7 +424,7 @@ public class BlockchainImpl implements Blockchain {
                 }
 
                 // TODO: 如果是交易块 不设置extra
-                if (!ref.getAmount().equals(BigInteger.ZERO)) {
+                if (ref.getAmountLong() != 0) {
                     updateBlockFlag(block, BI_EXTRA, false);
                 }
             }
@@ -366,7 +444,7 @@ public class BlockchainImpl implements Blockchain {
                                 ? OrphanRemoveActions.ORPHAN_REMOVE_EXTRA
                                 : OrphanRemoveActions.ORPHAN_REMOVE_NORMAL);
                 // TODO:add backref
-                if (!ref.getAmount().equals(BigInteger.ZERO)) {
+                if (ref.getAmountLong() != 0) {
                     if (ref.getType().equals(FieldType.XDAG_FIELD_IN)) {
                         onNewTxHistory(ref.getHashLow(), block.getHashLow(), FieldType.XDAG_FIELD_OUT, ref.getAmount(),
                                 block.getTimestamp(), id, block.getInfo().getRemark());
@@ -436,7 +514,7 @@ public class BlockchainImpl implements Blockchain {
 //            log.debug("======New block waiting to link======,{}",Hex.toHexString(block.getHashLow()));
             if ((block.getInfo().flags & BI_EXTRA) != 0) {
 //                log.debug("block:{} is extra, put it into memOrphanPool waiting to link.", Hex.toHexString(block.getHashLow()));
-                memOrphanPool.put(block.getHashLow(), block);
+                extraBlockPool.add(block);
                 xdagStats.nextra++;
 //                 TODO：设置为返回 IMPORTED_EXTRA
 //                result = ImportResult.IMPORTED_EXTRA;
@@ -507,10 +585,11 @@ public class BlockchainImpl implements Blockchain {
         Block blockRef;
         Block blockRef0 = null;
         // 把当前区块根据最大难度链接块递归查询到不是主链块为止 将这段的区块更新为主链块
+        Block tmpRef;
         for (blockRef = block;
                 blockRef != null && ((blockRef.getInfo().flags & BI_MAIN_CHAIN) == 0);
-                blockRef = getMaxDiffLink(blockRef, false)) {
-            Block tmpRef = getMaxDiffLink(blockRef, false);
+                blockRef = tmpRef) {
+            tmpRef = getMaxDiffLink(blockRef, false);
             if (
                     (tmpRef == null
                             || blockRef.getInfo().getDifficulty().compareTo(calculateBlockDiff(tmpRef,calculateCurrentBlockDiff(tmpRef))) > 0) &&
@@ -540,10 +619,11 @@ public class BlockchainImpl implements Blockchain {
         Block blockRef;
         Block blockRef0 = null;
         // 把当前区块根据最大难度链接块递归查询到不是主链块为止 将这段的区块更新为主链块
+        Block tmpRef;
         for (blockRef = block;
                 blockRef != null && ((blockRef.getInfo().flags & BI_MAIN_CHAIN) == 0);
-                blockRef = getMaxDiffLink(blockRef, false)) {
-            Block tmpRef = getMaxDiffLink(blockRef, false);
+                blockRef = tmpRef) {
+            tmpRef = getMaxDiffLink(blockRef, false);
             if (
                     (tmpRef == null
                             || blockRef.getInfo().getDifficulty().compareTo(calculateBlockDiff(tmpRef,calculateCurrentBlockDiff(tmpRef))) > 0) &&
@@ -557,10 +637,11 @@ public class BlockchainImpl implements Blockchain {
     }
 
     public void processExtraBlock() {
-        if (memOrphanPool.size() > MAX_ALLOWED_EXTRA) {
-            Block reuse = memOrphanPool.entrySet().iterator().next().getValue();
+        Block reuse = extraBlockPool.getEvictable();
+        if (reuse != null) {
             log.debug("Remove when extra too big");
             removeOrphan(reuse.getHashLow(), OrphanRemoveActions.ORPHAN_REMOVE_REUSE);
+            extraBlockPool.onEvicted();
             xdagStats.nblocks--;
             xdagStats.totalnblocks = Math.max(xdagStats.nblocks, xdagStats.totalnblocks);
 
@@ -618,14 +699,16 @@ public class BlockchainImpl implements Blockchain {
         log.debug("Unwind main to block,{}", block == null ? "null" : block.getHashLow().toHexString());
 //        log.debug("xdagTopStatus.getTop(),{}",xdagTopStatus.getTop()==null?"null":Hex.toHexString(xdagTopStatus.getTop()));
         if (xdagTopStatus.getTop() != null) {
-            for (Block tmp = getBlockByHash(Bytes32.wrap(xdagTopStatus.getTop()), true); tmp != null
-                    && !blockEqual(block, tmp); tmp = getMaxDiffLink(tmp, true)) {
+            // 只读取区块信息，只有需要回滚的主块才读取原始数据
+            for (Block tmp = getBlockByHash(Bytes32.wrap(xdagTopStatus.getTop()), false); tmp != null
+                    && !blockEqual(block, tmp); tmp = getMaxDiffLink(tmp, false)) {
                 updateBlockFlag(tmp, BI_MAIN_CHAIN, false);
                 // 更新对应的flag信息
                 if ((tmp.getInfo().flags & BI_MAIN) != 0) {
-                    unSetMain(tmp);
+                    Block main = getBlockByHash(tmp.getHashLow(), true);
+                    unSetMain(main);
                     // Fix: paulochen 这里需要更新你区块在数据库中的信息 比如height 210729
-                    blockStore.saveBlockInfo(tmp.getInfo());
+                    blockStore.saveBlockInfo(main.getInfo());
                 }
             }
         }
@@ -643,13 +726,13 @@ public class BlockchainImpl implements Blockchain {
     /**
      * 执行区块并返回手续费 *
      */
-    private UnsignedLong applyBlock(Block block) {
-        UnsignedLong sumIn = UnsignedLong.ZERO;
-        UnsignedLong sumOut = UnsignedLong.ZERO; // sumOut是用来支付其他区块link自己的手续费 现在先用0
+    private long applyBlock(Block block) {
+        long sumIn = 0;
+        long sumOut = 0; // sumOut是用来支付其他区块link自己的手续费 现在先用0
 
         // 处理过
         if ((block.getInfo().flags & BI_MAIN_REF) != 0) {
-            return UnsignedLong.ZERO.minus(UnsignedLong.ONE);
+            return -1;
         }
         // 设置为已处理
         updateBlockFlag(block, BI_MAIN_REF, true);
@@ -657,90 +740,87 @@ public class BlockchainImpl implements Blockchain {
         List<Address> links = block.getLinks();
         if (links == null || links.size() == 0) {
             updateBlockFlag(block, BI_APPLIED, true);
-            return UnsignedLong.ZERO;
+            return 0;
         }
 
         for (Address link : links) {
-            // 预处理时不需要拿回全部数据
-            Block ref = getBlockByHash(link.getHashLow(), false);
-            UnsignedLong ret;
+            // 预处理时只读取flags
             // 如果处理过
-            if ((ref.getInfo().flags & BI_MAIN_REF) != 0) {
-                ret = UnsignedLong.ZERO.minus(UnsignedLong.ONE);
-            } else {
-                ref = getBlockByHash(link.getHashLow(), true);
-                ret = applyBlock(ref);
+            if ((getBlockFlags(link.getHashLow()) & BI_MAIN_REF) != 0) {
+                continue;
             }
-            if (ret.compareTo(UnsignedLong.ZERO.minus(UnsignedLong.ONE)) == 0) {
+            Block ref = getBlockByHash(link.getHashLow(), true);
+            long ret = applyBlock(ref);
+            if (ret == -1) {
                 continue;
             }
             updateBlockRef(ref, new Address(block));
-            if (UnsignedLong.valueOf(block.getInfo().getAmount()).plus(ret).longValue() >=
-                    block.getInfo().getAmount()) {
+            if (!amountAddOverflows(block.getInfo().getAmount(), ret)) {
                 acceptAmount(block, ret);
             }
         }
 
         for (Address link : links) {
+            long amount = link.getAmountLong();
             if (link.getType() == XdagField.FieldType.XDAG_FIELD_IN) {
                 Block ref = getBlockByHash(link.getHashLow(), false);
 
-                if (ref.getInfo().getAmount() < link.getAmount().longValue()) {
+                if (compareAmount(ref.getInfo().getAmount(), amount) < 0) {
                     log.debug("This input ref doesn't have enough amount,hash:{},amount:{},need:{}",
                             Hex.toHexString(ref.getInfo().getHashlow()), ref.getInfo().getAmount(),
-                            link.getAmount().longValue());
-                    return UnsignedLong.ZERO;
+                            amount);
+                    return 0;
                 }
-                if (sumIn.plus(UnsignedLong.valueOf(link.getAmount())).longValue() < sumIn.longValue()) {
+                if (amountAddOverflows(sumIn, amount)) {
                     log.debug("This input ref's amount less than 0");
-                    return UnsignedLong.ZERO;
+                    return 0;
                 }
-                sumIn = sumIn.plus(UnsignedLong.valueOf(link.getAmount()));
+                sumIn += amount;
             } else {
-                if (sumOut.plus(UnsignedLong.valueOf(link.getAmount())).longValue() < sumOut.longValue()) {
+                if (amountAddOverflows(sumOut, amount)) {
                     log.debug("This output ref's amount less than 0");
-                    return UnsignedLong.ZERO;
+                    return 0;
                 }
-                sumOut = sumOut.plus(UnsignedLong.valueOf(link.getAmount()));
+                sumOut += amount;
             }
         }
 
-        if (UnsignedLong.valueOf(block.getInfo().getAmount()).plus(sumIn).longValue() < sumOut.longValue()
-                || UnsignedLong.valueOf(block.getInfo().getAmount()).plus(sumIn).longValue() < sumIn.longValue()) {
+        if (amountAddOverflows(block.getInfo().getAmount(), sumIn)
+                || compareAmount(block.getInfo().getAmount() + sumIn, sumOut) < 0) {
             log.debug("exec fail!");
-            return UnsignedLong.ZERO;
+            return 0;
         }
 
         for (Address link : links) {
             Block ref = getBlockByHash(link.getHashLow(), false);
             if (link.getType() == XdagField.FieldType.XDAG_FIELD_IN) {
-                acceptAmount(ref, UnsignedLong.ZERO.minus(UnsignedLong.valueOf(link.getAmount())));
+                acceptAmount(ref, -link.getAmountLong());
             } else {
-                acceptAmount(ref, UnsignedLong.valueOf(link.getAmount()));
+                acceptAmount(ref, link.getAmountLong());
             }
 //            blockStore.saveBlockInfo(ref.getInfo()); // TODO：acceptAmount时已经保存了 这里还需要保存吗
         }
 
         // 不一定大于0 因为可能部分金额扣除
-        UnsignedLong remain = sumIn.minus(sumOut);
+        long remain = sumIn - sumOut;
         acceptAmount(block, remain);
         updateBlockFlag(block, BI_APPLIED, true);
-        return UnsignedLong.ZERO;
+        return 0;
     }
 
     // TODO: unapply block which in snapshot
-    public UnsignedLong unApplyBlock(Block block) {
+    public long unApplyBlock(Block block) {
         List<Address> links = block.getLinks();
         if ((block.getInfo().flags & BI_APPLIED) != 0) {
-            UnsignedLong sum = UnsignedLong.ZERO;
+            long sum = 0;
             for (Address link : links) {
                 Block ref = getBlockByHash(link.getHashLow(), false);
                 if (link.getType() == XdagField.FieldType.XDAG_FIELD_IN) {
-                    acceptAmount(ref, UnsignedLong.valueOf(link.getAmount()));
-                    sum = sum.minus(UnsignedLong.valueOf(link.getAmount()));
+                    acceptAmount(ref, link.getAmountLong());
+                    sum -= link.getAmountLong();
                 } else {
-                    acceptAmount(ref, UnsignedLong.ZERO.minus(UnsignedLong.valueOf(link.getAmount())));
-                    sum = sum.plus(UnsignedLong.valueOf(link.getAmount()));
+                    acceptAmount(ref, -link.getAmountLong());
+                    sum += link.getAmountLong();
                 }
             }
             acceptAmount(block, sum);
@@ -757,7 +837,7 @@ public class BlockchainImpl implements Blockchain {
                 acceptAmount(block, unApplyBlock(getBlockByHash(ref.getHashLow(), true)));
             }
         }
-        return UnsignedLong.ZERO;
+        return 0;
     }
 
     /**
@@ -770,9 +850,13 @@ public class BlockchainImpl implements Blockchain {
         long reward = getReward(mainNumber);
         block.getInfo().setHeight(mainNumber);
         updateBlockFlag(block, BI_MAIN, true);
+        mainBlockWindow.add(mainNumber, block.getHashLow());
+        if ((block.getInfo().flags & BI_OURS) != 0) {
+            blockStore.saveMinedBlock(mainNumber, block.getInfo().getHashlow());
+        }
 
         // 接收奖励
-        acceptAmount(block, UnsignedLong.valueOf(reward));
+        acceptAmount(block, reward);
         xdagStats.nmain++;
 
         // 递归执行主块引用的区块 并获取手续费
@@ -796,11 +880,15 @@ public class BlockchainImpl implements Blockchain {
 
         long amount = getReward(xdagStats.nmain);
         updateBlockFlag(block, BI_MAIN, false);
+        mainBlockWindow.remove(xdagStats.nmain);
+        if ((block.getInfo().flags & BI_OURS) != 0) {
+            blockStore.removeMinedBlock(xdagStats.nmain);
+        }
 
         xdagStats.nmain--;
 
         // 去掉奖励和引用块的手续费
-        acceptAmount(block, UnsignedLong.ZERO.minus(UnsignedLong.valueOf(amount)));
+        acceptAmount(block, -amount);
         acceptAmount(block, unApplyBlock(block));
 
         if (randomXUtils != null) {
@@ -984,8 +1072,6 @@ public class BlockchainImpl implements Blockchain {
         BigInteger maxDiff = cuDiff;
         Address maxDiffLink = null;
 
-        // 临时区块
-        Block tmpBlock;
         if (block.getLinks().size() == 0) {
             return cuDiff;
         }
@@ -1013,17 +1099,10 @@ public class BlockchainImpl implements Blockchain {
                 // 计算出来的diff
                 // 1. 不在同一epoch的maxDiff+diff0
                 // 2. 同一epoch的maxDiff
-                tmpBlock = refBlock; // tmpBlock是link中的
                 BigInteger curDiff = refBlock.getInfo().getDifficulty();
-                while ((tmpBlock != null)
-                        && XdagTime.getEpoch(tmpBlock.getTimestamp()) == XdagTime.getEpoch(block.getTimestamp())) {
-                    tmpBlock = getMaxDiffLink(tmpBlock, false);
-                }
-                if (tmpBlock != null
-                        && (XdagTime.getEpoch(tmpBlock.getTimestamp()) < XdagTime.getEpoch(block.getTimestamp()))
-                        && tmpBlock.getInfo().getDifficulty().add(cuDiff).compareTo(curDiff) > 0
-                ) {
-                    curDiff = tmpBlock.getInfo().getDifficulty().add(cuDiff);
+                BigInteger prevEpochDiff = getPrevEpochDiff(refBlock);
+                if (prevEpochDiff != null && prevEpochDiff.add(cuDiff).compareTo(curDiff) > 0) {
+                    curDiff = prevEpochDiff.add(cuDiff);
                 }
                 if (curDiff == null) {
                     curDiff = BigInteger.ZERO;
@@ -1043,14 +1122,50 @@ public class BlockchainImpl implements Blockchain {
         return maxDiff;
     }
 
+    /**
+     * 沿最大难度链接找到refBlock所在epoch之前的第一个区块，返回它的难度，没有时返回null*
+     * <p>
+     * maxDiffLink is fixed once a block's difficulty is set, so the walk is done once per block and memoized.
+     */
+    private BigInteger getPrevEpochDiff(Block refBlock) {
+        Bytes32 key = Bytes32.wrap(refBlock.getHashLow().toArray());
+        Optional<BigInteger> memo = prevEpochDiffs.getIfPresent(key);
+        if (memo != null) {
+            return memo.orElse(null);
+        }
+        long epoch = XdagTime.getEpoch(refBlock.getTimestamp());
+        Block tmpBlock = refBlock;
+        while (tmpBlock != null && XdagTime.getEpoch(tmpBlock.getTimestamp()) == epoch) {
+            tmpBlock = getMaxDiffLink(tmpBlock, false);
+        }
+        BigInteger diff = null;
+        if (tmpBlock != null && XdagTime.getEpoch(tmpBlock.getTimestamp()) < epoch) {
+            diff = tmpBlock.getInfo().getDifficulty();
+        }
+        if (refBlock.getInfo().getDifficulty() != null) {
+            prevEpochDiffs.put(key, Optional.ofNullable(diff));
+        }
+        return diff;
+    }
+
     public BigInteger getDiffByRandomXHash(Block block) {
         long epoch = XdagTime.getEpoch(block.getTimestamp());
-        MutableBytes data = MutableBytes.create(64);
-        Bytes32 rxHash = Hash.sha256(block.getXdagBlock().getData().slice(0, 512 - 32));
-        data.set(0, rxHash);
-        data.set(32, block.getXdagBlock().getField(15).getData());
-        byte[] blockHash = randomXUtils.randomXBlockHash(data.toArray(), data.size(), epoch);
-        BigInteger diff = BigInteger.ZERO;
+        // the seed of an epoch changes when the chain reorganizes across a seed switch
+        byte[] seed = randomXUtils.randomXBlockSeed(epoch);
+        byte[] blockHash = seed == null ? null : blockStore.getPowHash(block.getHashLow(), seed);
+        if (blockHash == null) {
+            MutableBytes data = MutableBytes.create(64);
+            Bytes32 rxHash = Hash.sha256(block.getXdagBlock().getData().slice(0, 512 - 32));
+            data.set(0, rxHash);
+            data.set(32, block.getXdagBlock().getField(15).getData());
+            // stored under the seed the hash was computed with, which may differ from the one looked up above
+            Pair<byte[], byte[]> seedAndHash = randomXUtils.randomXBlockSeedAndHash(data.toArray(), data.size(), epoch);
+            if (seedAndHash != null) {
+                blockHash = seedAndHash.getRight();
+                blockStore.savePowHash(block.getHashLow(), seedAndHash.getLeft(), blockHash);
+            }
+        }
+        BigInteger diff;
         if (blockHash != null) {
             Bytes32 hash = Bytes32.wrap(Arrays.reverse(blockHash));
             diff =  getDiffByRawHash(hash);
@@ -1076,6 +1191,10 @@ public class BlockchainImpl implements Blockchain {
         if (height > xdagStats.nmain || height <= 0) {
             return null;
         }
+        Bytes32 hashlow = mainBlockWindow.getHashlow(height);
+        if (hashlow != null) {
+            return getBlockByHash(hashlow, false);
+        }
         return blockStore.getBlockByHeight(height);
     }
 
@@ -1093,13 +1212,29 @@ public class BlockchainImpl implements Blockchain {
         MutableBytes32 keyHashlow = MutableBytes32.create();
         keyHashlow.set(8, Objects.requireNonNull(hashlow).slice(8, 24));
 
-        Block b = memOrphanPool.get(Bytes32.wrap(keyHashlow));
+        Block b = extraBlockPool.get(keyHashlow);
         if (b == null) {
             b = blockStore.getBlockByHash(keyHashlow, isRaw);
         }
         return b;
     }
 
+    /**
+     * Flags of a block, read from the stored info without decoding it.
+     *
+     * @throws IllegalStateException if the block has no info
+     */
+    private int getBlockFlags(Bytes32 hashlow) {
+        MutableBytes32 keyHashlow = MutableBytes32.create();
+        keyHashlow.set(8, Objects.requireNonNull(hashlow).slice(8, 24));
+        Block b = extraBlockPool.get(keyHashlow);
+        if (b != null) {
+            return b.getInfo().getFlags();
+        }
+        return blockStore.getBlockInfoFlags(keyHashlow).orElseThrow(
+                () -> new IllegalStateException("No info of block " + keyHashlow.toHexString()));
+    }
+
     public Block getMaxDiffLink(Block block, boolean isRaw) {
         if (block.getInfo().getMaxDiffLink() != null) {
             return getBlockByHash(Bytes32.wrap(block.getInfo().getMaxDiffLink()), isRaw);
@@ -1120,9 +1255,7 @@ public class BlockchainImpl implements Blockchain {
 //                log.debug("移除Extra");
                 // 那removeBlockInfo就是完整的
                 // 从MemOrphanPool中去除
-                Bytes key = b.getHashLow();
-                Block removeBlockRaw = memOrphanPool.get(key);
-                memOrphanPool.remove(key);
+                Block removeBlockRaw = extraBlockPool.remove(b.getHashLow());
                 if (action != OrphanRemoveActions.ORPHAN_REMOVE_REUSE) {
                     // 将区块保存
                     saveBlock(removeBlockRaw);
@@ -1268,13 +1401,13 @@ public class BlockchainImpl implements Blockchain {
 
     private boolean verifySignature(MutableBytes subdata, SECPSignature sig, List<SECPPublicKey> publicKeys, BlockInfo blockInfo) {
         for (SECPPublicKey publicKey : publicKeys) {
-            byte[] publicKeyBytes = publicKey.asEcPoint(Sign.CURVE).getEncoded(true);
+            byte[] publicKeyBytes = Sign.compressPublicKey(publicKey);
             Bytes digest = Bytes.wrap(subdata, Bytes.wrap(publicKeyBytes));
 //            log.debug("verify encoded:{}", Hex.toHexString(digest));
             Bytes32 hash = Hash.hashTwice(digest);
-            if (Sign.SECP256K1.verify(hash, sig, publicKey)) {
+            if (Sign.verify(hash, sig, publicKey)) {
                 SnapshotInfo snapshotInfo = blockInfo.getSnapshotInfo();
-                byte[] pubkeyBytes = publicKey.asEcPoint(Sign.CURVE).getEncoded(true);
+                byte[] pubkeyBytes = Sign.compressPublicKey(publicKey);
                 if (snapshotInfo != null) {
                     snapshotInfo.setData(pubkeyBytes);
                     snapshotInfo.setType(true);
@@ -1296,11 +1429,11 @@ public class BlockchainImpl implements Blockchain {
         for (int i = 0; i < ourkeys.size(); i++) {
             KeyPair ecKey = ourkeys.get(i);
             // TODO: 优化
-            byte[] publicKeyBytes = ecKey.getPublicKey().asEcPoint(Sign.CURVE).getEncoded(true);
+            byte[] publicKeyBytes = Sign.compressPublicKey(ecKey.getPublicKey());
             Bytes digest = Bytes.wrap(block.getSubRawData(block.getOutsigIndex() - 2), Bytes.wrap(publicKeyBytes));
             Bytes32 hash = Hash.hashTwice(Bytes.wrap(digest));
             // use hyperledger besu crypto native secp256k1
-            if (Sign.SECP256K1.verify(hash, signature, ecKey.getPublicKey())) {
+            if (Sign.verify(hash, signature, ecKey.getPublicKey())) {
                 log.debug("verify block success hash={}.", hash.toHexString());
                 addOurBlock(i, block);
                 return true;
@@ -1386,12 +1519,17 @@ public class BlockchainImpl implements Blockchain {
     }
 
     public void checkMain() {
-        try {
-            checkNewMain();
-            // checkNewMain后xdagStats状态会发生改变
-            blockStore.saveXdagStatus(xdagStats);
-        } catch (Throwable e) {
-            log.error(e.getMessage(), e);
+        synchronized (this) {
+            beginBatch();
+            try {
+                checkNewMain();
+                // checkNewMain后xdagStats状态会发生改变
+                blockStore.saveXdagStatus(xdagStats);
+            } catch (Throwable e) {
+                log.error(e.getMessage(), e);
+            } finally {
+                commitBatch();
+            }
         }
     }
 
@@ -1426,13 +1564,14 @@ public class BlockchainImpl implements Blockchain {
      * 为区块block添加amount金额 *
      */
     // TODO : accept amount to block which in snapshot
-    private void acceptAmount(Block block, UnsignedLong amount) {
-        block.getInfo().setAmount(UnsignedLong.valueOf(block.getInfo().getAmount()).plus(amount).longValue());
+    private void acceptAmount(Block block, long amount) {
+        // unsigned 64 bits arithmetic, a negative amount wraps around the same way UnsignedLong.minus did
+        block.getInfo().setAmount(block.getInfo().getAmount() + amount);
         if (block.isSaved) {
             blockStore.saveBlockInfo(block.getInfo());
         }
         if ((block.getInfo().flags & BI_OURS) != 0) {
-            xdagStats.setBalance(amount.plus(UnsignedLong.valueOf(xdagStats.getBalance())).longValue());
+            xdagStats.setBalance(xdagStats.getBalance() + amount);
         }
     }
 
@@ -1440,7 +1579,7 @@ public class BlockchainImpl implements Blockchain {
      * 判断是否已经接收过区块 *
      */
     public boolean isExist(Bytes32 hashlow) {
-        return memOrphanPool.containsKey(hashlow) ||
+        return extraBlockPool.contains(hashlow) ||
                 blockStore.hasBlock(hashlow) || isExitInSnapshot(hashlow);
     }
 
@@ -1476,26 +1615,14 @@ public class BlockchainImpl implements Blockchain {
         return listMainBlocksByHeight(count);
     }
 
-    // TODO: 列出本矿池生成的主块，如果本矿池只在前期产块或者从未产块，会导致需要遍历所有的区块数据，这部分应该需要优化
     @Override
     public List<Block> listMinedBlocks(int count) {
-        Block temp = getBlockByHash(Bytes32.wrap(xdagTopStatus.getTop()), false);
-        if (temp == null) {
-            temp = getBlockByHash(Bytes32.wrap(xdagTopStatus.getPreTop()), false);
-        }
         List<Block> res = new ArrayList<>();
-        while (count > 0) {
-            if (temp == null) {
-                break;
-            }
-            if ((temp.getInfo().flags & BI_MAIN) != 0 && (temp.getInfo().flags & BI_OURS) != 0) {
-                count--;
-                res.add((Block) temp.clone());
-            }
-            if (temp.getInfo().getMaxDiffLink() == null) {
-                break;
+        for (Bytes32 hashlow : blockStore.getMinedBlocks(count)) {
+            Block block = getBlockByHash(hashlow, false);
+            if (block != null) {
+                res.add(block);
             }
-            temp = getBlockByHash(Bytes32.wrap(temp.getInfo().getMaxDiffLink()), false);
         }
         return res;
     }
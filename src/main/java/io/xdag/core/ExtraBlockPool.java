@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.core;
+
+import io.xdag.utils.XdagTime;
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.bytes.MutableBytes32;
+
+/**
+ * Extra blocks (BI_EXTRA) waiting to be linked, kept in memory only.
+ * <p>
+ * Reads are lock free. When the pool holds more than its capacity, {@link #getEvictable()} names the block to drop:
+ * the one from the oldest epoch, and within an epoch the one with the lowest difficulty. Dropping it is left to the
+ * caller because it has to update the chain state as well.
+ */
+public class ExtraBlockPool {
+
+    private static final Comparator<Entry> EVICTION_ORDER = Comparator
+            .comparingLong((Entry e) -> e.epoch)
+            .thenComparing(e -> e.difficulty)
+            .thenComparingLong(e -> e.seq);
+
+    private final Map<Bytes32, Entry> blocks = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> order = new ConcurrentSkipListSet<>(EVICTION_ORDER);
+    private final AtomicLong seq = new AtomicLong();
+
+    @Getter
+    private final long capacity;
+    @Getter
+    private final AtomicLong added = new AtomicLong();
+    @Getter
+    private final AtomicLong removed = new AtomicLong();
+    @Getter
+    private final AtomicLong evicted = new AtomicLong();
+
+    public ExtraBlockPool(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public void add(Block block) {
+        Bytes32 key = key(block.getHashLow());
+        BigInteger difficulty = block.getInfo().getDifficulty();
+        Entry entry = new Entry(block, XdagTime.getEpoch(block.getTimestamp()),
+                difficulty == null ? BigInteger.ZERO : difficulty, seq.incrementAndGet());
+        Entry old = blocks.put(key, entry);
+        if (old != null) {
+            order.remove(old);
+        } else {
+            added.incrementAndGet();
+        }
+        order.add(entry);
+    }
+
+    public Block get(Bytes32 hashlow) {
+        Entry entry = blocks.get(key(hashlow));
+        return entry == null ? null : entry.block;
+    }
+
+    public boolean contains(Bytes32 hashlow) {
+        return blocks.containsKey(key(hashlow));
+    }
+
+    public Block remove(Bytes32 hashlow) {
+        Entry entry = blocks.remove(key(hashlow));
+        if (entry == null) {
+            return null;
+        }
+        order.remove(entry);
+        removed.incrementAndGet();
+        return entry.block;
+    }
+
+    /**
+     * The block that should be dropped to get back under capacity, null if the pool isn't over it.
+     */
+    public Block getEvictable() {
+        if (blocks.size() <= capacity) {
+            return null;
+        }
+        Entry entry = order.isEmpty() ? null : order.first();
+        return entry == null ? null : entry.block;
+    }
+
+    /**
+     * Count a block returned by {@link #getEvictable()} as evicted once the caller removed it.
+     */
+    public void onEvicted() {
+        evicted.incrementAndGet();
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    private static Bytes32 key(Bytes32 hashlow) {
+        // MutableBytes32 keys would change under the map
+        return hashlow instanceof MutableBytes32 ? hashlow.copy() : hashlow;
+    }
+
+    private static class Entry {
+
+        private final Block block;
+        private final long epoch;
+        private final BigInteger difficulty;
+        private final long seq;
+
+        private Entry(Block block, long epoch, BigInteger difficulty, long seq) {
+            this.block = block;
+            this.epoch = epoch;
+            this.difficulty = difficulty;
+            this.seq = seq;
+        }
+    }
+}
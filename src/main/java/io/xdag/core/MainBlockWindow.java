@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.core;
+
+import java.util.Arrays;
+import org.apache.tuweni.bytes.Bytes32;
+
+/**
+ * Ring buffer of the hashlows of the most recent main blocks, indexed by height.
+ * <p>
+ * It always covers a contiguous range of heights ending at the current main block, so height queries and
+ * unwinding a fork within that range don't need the height index on disk.
+ */
+public class MainBlockWindow {
+
+    private final int capacity;
+    private final Bytes32[] hashlows;
+    /**
+     * heights in the window are (top - size, top]
+     */
+    private long top;
+    private int size;
+
+    public MainBlockWindow(int capacity) {
+        this.capacity = capacity;
+        this.hashlows = new Bytes32[capacity];
+    }
+
+    /**
+     * Record the main block at height, which must be the one right above the current top. Otherwise the window
+     * is restarted from this block.
+     */
+    public synchronized void add(long height, Bytes32 hashlow) {
+        if (size > 0 && height != top + 1) {
+            clear();
+        }
+        if (size == capacity) {
+            size--;
+        }
+        top = height;
+        size++;
+        hashlows[index(height)] = hashlow.copy();
+    }
+
+    /**
+     * Drop the main block at height after it lost its main status, heights above it are dropped too.
+     */
+    public synchronized void remove(long height) {
+        while (size > 0 && top >= height) {
+            hashlows[index(top)] = null;
+            top--;
+            size--;
+        }
+    }
+
+    public synchronized Bytes32 getHashlow(long height) {
+        return contains(height) ? hashlows[index(height)] : null;
+    }
+
+    public synchronized boolean contains(long height) {
+        return size > 0 && height <= top && height > top - size;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(hashlows, null);
+        top = 0;
+        size = 0;
+    }
+
+    private int index(long height) {
+        return (int) Math.floorMod(height, (long) capacity);
+    }
+}
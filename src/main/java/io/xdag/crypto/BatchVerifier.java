@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.crypto.SECPPublicKey;
+import org.hyperledger.besu.crypto.SECPSignature;
+
+/**
+ * Verifies batches of (hash, signature, public key) triples across a thread pool, small batches are verified
+ * on the calling thread. Every check goes through {@link Sign#verify(Bytes32, SECPSignature, SECPPublicKey)}.
+ */
+@Slf4j
+public final class BatchVerifier {
+
+    /**
+     * batches smaller than this are not worth handing to other threads
+     */
+    public static final int PARALLEL_THRESHOLD = 16;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+            new BasicThreadFactory.Builder()
+                    .namingPattern("BatchVerifier-thread-%d")
+                    .daemon(true)
+                    .build());
+
+    private BatchVerifier() {
+    }
+
+    @Getter
+    public static class Check {
+
+        private final Bytes32 hash;
+        private final SECPSignature signature;
+        private final SECPPublicKey publicKey;
+
+        public Check(Bytes32 hash, SECPSignature signature, SECPPublicKey publicKey) {
+            this.hash = hash;
+            this.signature = signature;
+            this.publicKey = publicKey;
+        }
+    }
+
+    /**
+     * @return result of every check, in the order of the checks
+     */
+    public static boolean[] verify(List<Check> checks) {
+        boolean[] res = new boolean[checks.size()];
+        if (checks.size() < PARALLEL_THRESHOLD || THREADS < 2) {
+            verify(checks, res, 0, checks.size());
+            return res;
+        }
+        int chunk = (checks.size() + THREADS - 1) / THREADS;
+        List<Future<?>> futures = new ArrayList<>();
+        // the calling thread verifies the first chunk itself
+        for (int from = chunk; from < checks.size(); from += chunk) {
+            int start = from;
+            int end = Math.min(from + chunk, checks.size());
+            futures.add(EXECUTOR.submit(() -> verify(checks, res, start, end)));
+        }
+        verify(checks, res, 0, Math.min(chunk, checks.size()));
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return res;
+    }
+
+    private static void verify(List<Check> checks, boolean[] res, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Check check = checks.get(i);
+            res[i] = Sign.verify(check.getHash(), check.getSignature(), check.getPublicKey());
+        }
+    }
+}
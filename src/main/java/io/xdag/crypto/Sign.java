@@ -24,6 +24,11 @@
 
 package io.xdag.crypto;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
 import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.asn1.x9.X9IntegerConverter;
 import org.bouncycastle.crypto.ec.CustomNamedCurves;
@@ -31,6 +36,7 @@ import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.math.ec.FixedPointCombMultiplier;
 import org.hyperledger.besu.crypto.SECP256K1;
+import org.hyperledger.besu.crypto.SECPPublicKey;
 import org.hyperledger.besu.crypto.SECPSignature;
 
 import java.math.BigInteger;
@@ -58,6 +64,89 @@ public class Sign {
     public static final SECP256K1 SECP256K1 = new SECP256K1();
     static final BigInteger HALF_CURVE_ORDER = CURVE_PARAMS.getN().shiftRight(1);
 
+    /**
+     * max number of successful verifications remembered by {@link #verify(Bytes32, SECPSignature, SECPPublicKey)}
+     */
+    public static final int VERIFY_CACHE_SIZE = 65536;
+
+    /**
+     * hash + signature + public key of successful verifications, relayed and re-queued blocks hit it
+     */
+    private static final Cache<Bytes, Boolean> VERIFIED = Caffeine.newBuilder()
+            .maximumSize(VERIFY_CACHE_SIZE)
+            .recordStats()
+            .build();
+
+    /**
+     * max number of public keys whose decompressed and compressed forms are kept
+     */
+    public static final int PUBLIC_KEY_CACHE_SIZE = 16384;
+
+    /**
+     * prefix + x coordinate -> public key, pool payout and exchange addresses sign most blocks
+     */
+    private static final Cache<Bytes, SECPPublicKey> DECOMPRESSED = Caffeine.newBuilder()
+            .maximumSize(PUBLIC_KEY_CACHE_SIZE)
+            .build();
+
+    private static final Cache<SECPPublicKey, byte[]> COMPRESSED = Caffeine.newBuilder()
+            .maximumSize(PUBLIC_KEY_CACHE_SIZE)
+            .build();
+
+    /**
+     * Choose between the native libsecp256k1 backend, used when it can be loaded, and the java one.
+     *
+     * @return true if the native backend is in use
+     */
+    public static boolean useNative(boolean enable) {
+        if (enable) {
+            return SECP256K1.maybeEnableNative();
+        }
+        SECP256K1.disableNative();
+        return false;
+    }
+
+    /**
+     * ECDSA verification that remembers successes, failures are always checked again.
+     */
+    public static boolean verify(Bytes32 hash, SECPSignature signature, SECPPublicKey publicKey) {
+        Bytes key = Bytes.wrap(hash, signature.encodedBytes().slice(0, 64), publicKey.getEncodedBytes());
+        if (VERIFIED.getIfPresent(key) != null) {
+            return true;
+        }
+        if (!SECP256K1.verify(hash, signature, publicKey)) {
+            return false;
+        }
+        VERIFIED.put(key, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Public key of a compressed point, decompressed keys are cached.
+     *
+     * @param x 32 bytes x coordinate
+     * @param yBit whether y is odd
+     */
+    public static SECPPublicKey decompressPublicKey(Bytes x, boolean yBit) {
+        Bytes compressed = Bytes.concatenate(Bytes.of(yBit ? 0x03 : 0x02), x);
+        return DECOMPRESSED.get(compressed, k -> {
+            SECPPublicKey publicKey = SECPPublicKey.create(decompressKey(x.toUnsignedBigInteger(), yBit), CURVE_NAME);
+            COMPRESSED.put(publicKey, k.toArray());
+            return publicKey;
+        });
+    }
+
+    /**
+     * 33 bytes compressed encoding of a public key, cached.
+     */
+    public static byte[] compressPublicKey(SECPPublicKey publicKey) {
+        return COMPRESSED.get(publicKey, k -> k.asEcPoint(CURVE).getEncoded(true)).clone();
+    }
+
+    public static CacheStats getVerifyCacheStats() {
+        return VERIFIED.stats();
+    }
+
     /**
      * Decompress a compressed public key (x co-ord and low-bit of y-coord).
      */
@@ -45,6 +45,7 @@ public class Native {
 
     protected static File nativeDir;
     protected static boolean enabled = false;
+    private static volatile Boolean directCrypt;
 
     /**
      * Initializes the native libraries
@@ -132,6 +133,34 @@ public class Native {
     public static native byte[] dfslib_uncrypt_byte_sector(
             byte[] encrypted, int length, long sectorNo);
 
+    /**
+     * 原地加密direct内存address处连续的nsectors个sector, 第i个sector的序号为sectorNo + i
+     */
+    public static native void dfslib_encrypt_sectors(long address, int nsectors, long sectorNo);
+
+    /**
+     * 原地解密direct内存address处连续的nsectors个sector, 第i个sector的序号为sectorNo + i
+     */
+    public static native void dfslib_uncrypt_sectors(long address, int nsectors, long sectorNo);
+
+    /**
+     * 加载的库是否提供dfslib_encrypt_sectors/dfslib_uncrypt_sectors, 旧版本的库没有
+     */
+    public static boolean isDirectCryptSupported() {
+        Boolean supported = directCrypt;
+        if (supported == null) {
+            try {
+                dfslib_uncrypt_sectors(0, 0, 0);
+                supported = true;
+            } catch (UnsatisfiedLinkError e) {
+                logger.info("Native library has no direct sector crypt, fall back to byte arrays");
+                supported = false;
+            }
+            directCrypt = supported;
+        }
+        return supported;
+    }
+
     // public static native byte[] dfslib_uncrypt_array();
 
     /**
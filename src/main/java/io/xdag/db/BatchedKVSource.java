@@ -0,0 +1,437 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db;
+
+import com.google.common.collect.Lists;
+import io.xdag.db.rocksdb.RocksdbKVSource;
+import io.xdag.utils.BytesUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * KVSource decorator collecting the writes of one import into an in-memory write set. Between
+ * {@link #beginBatch()} and the outermost {@link #commitBatch()} all puts and deletes are buffered, reads see
+ * the buffered values first, and the whole set is handed to {@link KVSource#writeBatch(List)} at once.
+ * <p>
+ * A batch belongs to the thread that began it: only that thread buffers into and reads from the write set,
+ * other threads keep reading and writing the db directly and wait in {@link #beginBatch()} until the batch
+ * ends.
+ */
+@Slf4j
+public class BatchedKVSource implements KVSource<byte[], byte[]> {
+
+    /**
+     * marks a buffered delete, the write set can't hold null values
+     */
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final KVSource<byte[], byte[]> source;
+
+    private final ConcurrentSkipListMap<byte[], byte[]> writeSet = new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+
+    private int depth;
+
+    /**
+     * thread running the open batch, null when there is none
+     */
+    private volatile Thread owner;
+
+    public BatchedKVSource(KVSource<byte[], byte[]> source) {
+        this.source = source;
+    }
+
+    /**
+     * Start a batch owned by the calling thread, nested calls join the outer batch. Blocks while another
+     * thread owns a batch.
+     */
+    public synchronized void beginBatch() {
+        Thread current = Thread.currentThread();
+        boolean interrupted = false;
+        while (owner != null && owner != current) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            current.interrupt();
+        }
+        owner = current;
+        depth++;
+    }
+
+    /**
+     * Flush the write set when the outermost batch ends. The batch is released even if the write fails.
+     */
+    public synchronized void commitBatch() {
+        if (!endBatch()) {
+            return;
+        }
+        try {
+            if (!writeSet.isEmpty()) {
+                source.writeBatch(pendingRows());
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * @return true when the calling thread ends its outermost batch
+     */
+    private boolean endBatch() {
+        if (!isOwner()) {
+            return false;
+        }
+        return --depth == 0;
+    }
+
+    private void release() {
+        writeSet.clear();
+        owner = null;
+        notifyAll();
+    }
+
+    private boolean isOwner() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * End the batch of several sources. When all of them are column families of one rocksdb instance the
+     * flushed rows are written in one atomic batch, otherwise each source is written in the given order.
+     */
+    public static void commitBatch(List<BatchedKVSource> sources) {
+        commitBatch(sources, 0, new ArrayList<>());
+    }
+
+    /**
+     * Holds the monitor of every source until the rows are written, so no source is released to the next
+     * batch while rows of this one are still on their way to the db.
+     */
+    private static void commitBatch(List<BatchedKVSource> sources, int i, List<BatchedKVSource> flushing) {
+        if (i == sources.size()) {
+            flush(flushing);
+            return;
+        }
+        BatchedKVSource source = sources.get(i);
+        synchronized (source) {
+            boolean end = source.endBatch();
+            if (end && !source.writeSet.isEmpty()) {
+                flushing.add(source);
+            }
+            try {
+                commitBatch(sources, i + 1, flushing);
+            } finally {
+                if (end) {
+                    source.release();
+                }
+            }
+        }
+    }
+
+    private static void flush(List<BatchedKVSource> sources) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        if (sources.size() > 1 && sources.stream().allMatch(s -> s.source instanceof RocksdbKVSource
+                && ((RocksdbKVSource) s.source).sharesInstanceWith((RocksdbKVSource) sources.get(0).source))) {
+            List<Pair<RocksdbKVSource, List<Pair<byte[], byte[]>>>> rows = new ArrayList<>();
+            for (BatchedKVSource source : sources) {
+                rows.add(Pair.of((RocksdbKVSource) source.source, source.pendingRows()));
+            }
+            RocksdbKVSource.writeAtomically(rows);
+            return;
+        }
+        for (BatchedKVSource source : sources) {
+            source.source.writeBatch(source.pendingRows());
+        }
+    }
+
+    private List<Pair<byte[], byte[]>> pendingRows() {
+        List<Pair<byte[], byte[]>> rows = new ArrayList<>(writeSet.size());
+        for (Map.Entry<byte[], byte[]> entry : writeSet.entrySet()) {
+            rows.add(Pair.of(entry.getKey(), entry.getValue() == TOMBSTONE ? null : entry.getValue()));
+        }
+        return rows;
+    }
+
+    /**
+     * @return true if the calling thread has an open batch
+     */
+    public synchronized boolean isBatching() {
+        return isOwner() && depth > 0;
+    }
+
+    @Override
+    public String getName() {
+        return source.getName();
+    }
+
+    @Override
+    public void setName(String name) {
+        source.setName(name);
+    }
+
+    @Override
+    public boolean isAlive() {
+        return source.isAlive();
+    }
+
+    @Override
+    public void init() {
+        source.init();
+    }
+
+    @Override
+    public synchronized void close() {
+        commitPending();
+        source.close();
+    }
+
+    @Override
+    public synchronized void reset() {
+        if (owner != null) {
+            depth = 0;
+            release();
+        }
+        source.reset();
+    }
+
+    @Override
+    public void put(byte[] key, byte[] val) {
+        synchronized (this) {
+            if (isOwner()) {
+                writeSet.put(key, val == null ? TOMBSTONE : val);
+                return;
+            }
+        }
+        source.put(key, val);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        byte[] val = isOwner() ? writeSet.get(key) : null;
+        if (val != null) {
+            return val == TOMBSTONE ? null : val;
+        }
+        return source.get(key);
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        synchronized (this) {
+            if (isOwner()) {
+                writeSet.put(key, TOMBSTONE);
+                return;
+            }
+        }
+        source.delete(key);
+    }
+
+    @Override
+    public void writeBatch(List<Pair<byte[], byte[]>> rows) {
+        synchronized (this) {
+            if (isOwner()) {
+                for (Pair<byte[], byte[]> row : rows) {
+                    writeSet.put(row.getKey(), row.getValue() == null ? TOMBSTONE : row.getValue());
+                }
+                return;
+            }
+        }
+        source.writeBatch(rows);
+    }
+
+    @Override
+    public Set<byte[]> keys() throws RuntimeException {
+        Set<byte[]> keys = source.keys();
+        if (!isOwner() || writeSet.isEmpty()) {
+            return keys;
+        }
+        NavigableMap<byte[], byte[]> merged = new TreeMap<>(Arrays::compareUnsigned);
+        keys.forEach(k -> merged.put(k, k));
+        writeSet.forEach((k, v) -> {
+            if (v == TOMBSTONE) {
+                merged.remove(k);
+            } else {
+                merged.put(k, k);
+            }
+        });
+        return merged.keySet();
+    }
+
+    @Override
+    public List<byte[]> prefixKeyLookup(byte[] key) {
+        List<byte[]> retList = Lists.newLinkedList();
+        fetchPrefix(key, pair -> {
+            retList.add(pair.getKey());
+            return Boolean.FALSE;
+        });
+        return retList;
+    }
+
+    /**
+     * Without buffered rows under the prefix this is a plain pass-through, otherwise the buffered rows are merged
+     * into the stream of stored rows in scan order, so from, reverse and early stop keep working on the db.
+     */
+    @Override
+    public void fetchPrefix(byte[] prefix, byte[] from, boolean reverse, Function<Pair<byte[], byte[]>, Boolean> func) {
+        NavigableMap<byte[], byte[]> pending = pendingWithPrefix(prefix);
+        if (from != null && !pending.isEmpty()) {
+            pending = reverse ? pending.headMap(from, true) : pending.tailMap(from, true);
+        }
+        if (pending.isEmpty()) {
+            source.fetchPrefix(prefix, from, reverse, func);
+            return;
+        }
+        MergedScan scan = new MergedScan(reverse ? pending.descendingMap() : pending, reverse, func);
+        source.fetchPrefix(prefix, from, reverse, scan);
+        if (!scan.stopped) {
+            scan.drain();
+        }
+    }
+
+    @Override
+    public List<byte[]> prefixValueLookup(byte[] key) {
+        List<byte[]> retList = Lists.newLinkedList();
+        fetchPrefix(key, pair -> {
+            retList.add(pair.getValue());
+            return Boolean.FALSE;
+        });
+        return retList;
+    }
+
+    @Override
+    public List<Pair<byte[], byte[]>> prefixKeyAndValueLookup(byte[] key) {
+        List<Pair<byte[], byte[]>> retList = Lists.newLinkedList();
+        fetchPrefix(key, pair -> {
+            if (pair.getValue() != null) {
+                retList.add(pair);
+            }
+            return Boolean.FALSE;
+        });
+        return retList;
+    }
+
+    private NavigableMap<byte[], byte[]> pendingWithPrefix(byte[] prefix) {
+        if (!isOwner() || writeSet.isEmpty()) {
+            return Collections.emptyNavigableMap();
+        }
+        NavigableMap<byte[], byte[]> tail = writeSet.tailMap(prefix, true);
+        NavigableMap<byte[], byte[]> res = new TreeMap<>(Arrays::compareUnsigned);
+        for (Map.Entry<byte[], byte[]> entry : tail.entrySet()) {
+            if (!BytesUtils.keyStartsWith(entry.getKey(), prefix)) {
+                break;
+            }
+            res.put(entry.getKey(), entry.getValue());
+        }
+        return res;
+    }
+
+    /**
+     * Visits the stored rows of a scan and puts the buffered rows in between, a buffered row replaces or hides
+     * the stored row of the same key.
+     */
+    private static class MergedScan implements Function<Pair<byte[], byte[]>, Boolean> {
+
+        private final Iterator<Map.Entry<byte[], byte[]>> pending;
+
+        private final boolean reverse;
+
+        private final Function<Pair<byte[], byte[]>, Boolean> func;
+
+        private Map.Entry<byte[], byte[]> next;
+
+        private boolean stopped;
+
+        MergedScan(NavigableMap<byte[], byte[]> pending, boolean reverse,
+                Function<Pair<byte[], byte[]>, Boolean> func) {
+            this.pending = pending.entrySet().iterator();
+            this.reverse = reverse;
+            this.func = func;
+            this.next = this.pending.next();
+        }
+
+        @Override
+        public Boolean apply(Pair<byte[], byte[]> stored) {
+            int cmp = 1;
+            while (next != null && (cmp = compare(next.getKey(), stored.getKey())) < 0) {
+                if (emitNext()) {
+                    stopped = true;
+                    return true;
+                }
+            }
+            if (next != null && cmp == 0) {
+                stopped = emitNext();
+            } else {
+                stopped = func.apply(stored);
+            }
+            return stopped;
+        }
+
+        void drain() {
+            while (next != null) {
+                if (emitNext()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return true if func asked to stop
+         */
+        private boolean emitNext() {
+            Map.Entry<byte[], byte[]> entry = next;
+            next = pending.hasNext() ? pending.next() : null;
+            return entry.getValue() != TOMBSTONE && func.apply(Pair.of(entry.getKey(), entry.getValue()));
+        }
+
+        private int compare(byte[] a, byte[] b) {
+            return reverse ? Arrays.compareUnsigned(b, a) : Arrays.compareUnsigned(a, b);
+        }
+    }
+
+    private void commitPending() {
+        if (!writeSet.isEmpty()) {
+            log.warn("Flush {} pending writes of unfinished batch on close of db '{}'", writeSet.size(), getName());
+            source.writeBatch(pendingRows());
+        }
+        if (owner != null) {
+            depth = 0;
+            release();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db;
+
+import io.xdag.core.BlockInfo;
+import io.xdag.core.SnapshotInfo;
+import io.xdag.db.execption.DeserializationException;
+import io.xdag.db.execption.SerializationException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed layout binary format of {@link BlockInfo} in the index db.
+ *
+ * <pre>
+ * offset  size  field
+ *  0      3     magic "XBI"
+ *  3      1     version
+ *  4      8     type
+ *  12     4     flags
+ *  16     8     height
+ *  24     8     amount
+ *  32     8     fee
+ *  40     8     timestamp
+ *  48     1     isSnapshot
+ *  49     ...   difficulty, ref, maxDiffLink, remark, hash, hashlow as [int length][bytes], length -1 for null,
+ *               then snapshot info as [byte present][byte type][int length][bytes]
+ * </pre>
+ *
+ * All numbers are big endian. The scalar fields sit at fixed offsets, so they can be read straight from the
+ * stored value without decoding the rest. Values written before this format are kryo encoded and are told apart
+ * by the magic prefix.
+ */
+public final class BlockInfoCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final byte[] MAGIC = {'X', 'B', 'I'};
+
+    private static final int TYPE_OFFSET = 4;
+    private static final int FLAGS_OFFSET = 12;
+    private static final int HEIGHT_OFFSET = 16;
+    private static final int AMOUNT_OFFSET = 24;
+    private static final int TIMESTAMP_OFFSET = 40;
+    private static final int FIXED_SIZE = 49;
+
+    private BlockInfoCodec() {
+    }
+
+    /**
+     * @return true if the value is in this format, false for legacy kryo values
+     */
+    public static boolean isEncoded(byte[] value) {
+        return value != null
+                && value.length >= FIXED_SIZE
+                && value[0] == MAGIC[0]
+                && value[1] == MAGIC[1]
+                && value[2] == MAGIC[2]
+                && value[3] == VERSION;
+    }
+
+    public static byte[] encode(BlockInfo blockInfo) throws SerializationException {
+        byte[] difficulty = blockInfo.getDifficulty() == null ? null : blockInfo.getDifficulty().toByteArray();
+        SnapshotInfo snapshotInfo = blockInfo.getSnapshotInfo();
+        int size = FIXED_SIZE
+                + sizeOf(difficulty)
+                + sizeOf(blockInfo.getRef())
+                + sizeOf(blockInfo.getMaxDiffLink())
+                + sizeOf(blockInfo.getRemark())
+                + sizeOf(blockInfo.getHash())
+                + sizeOf(blockInfo.getHashlow())
+                + 1 + (snapshotInfo == null ? 0 : 1 + sizeOf(snapshotInfo.getData()));
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC).put(VERSION)
+                .putLong(blockInfo.getType())
+                .putInt(blockInfo.getFlags())
+                .putLong(blockInfo.getHeight())
+                .putLong(blockInfo.getAmount())
+                .putLong(blockInfo.getFee())
+                .putLong(blockInfo.getTimestamp())
+                .put((byte) (blockInfo.isSnapshot() ? 1 : 0));
+        putBytes(buffer, difficulty);
+        putBytes(buffer, blockInfo.getRef());
+        putBytes(buffer, blockInfo.getMaxDiffLink());
+        putBytes(buffer, blockInfo.getRemark());
+        putBytes(buffer, blockInfo.getHash());
+        putBytes(buffer, blockInfo.getHashlow());
+        if (snapshotInfo == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1).put((byte) (snapshotInfo.getType() ? 1 : 0));
+            putBytes(buffer, snapshotInfo.getData());
+        }
+        if (buffer.hasRemaining()) {
+            throw new SerializationException("BlockInfo size mismatch", null);
+        }
+        return buffer.array();
+    }
+
+    public static BlockInfo decode(byte[] value) throws DeserializationException {
+        if (!isEncoded(value)) {
+            throw new DeserializationException("Not a BlockInfo of version " + VERSION, null);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(value);
+            buffer.position(TYPE_OFFSET);
+            BlockInfo blockInfo = new BlockInfo();
+            blockInfo.setType(buffer.getLong());
+            blockInfo.setFlags(buffer.getInt());
+            blockInfo.setHeight(buffer.getLong());
+            blockInfo.setAmount(buffer.getLong());
+            blockInfo.setFee(buffer.getLong());
+            blockInfo.setTimestamp(buffer.getLong());
+            blockInfo.setSnapshot(buffer.get() != 0);
+            byte[] difficulty = getBytes(buffer);
+            blockInfo.setDifficulty(difficulty == null ? null : new BigInteger(difficulty));
+            blockInfo.setRef(getBytes(buffer));
+            blockInfo.setMaxDiffLink(getBytes(buffer));
+            blockInfo.setRemark(getBytes(buffer));
+            blockInfo.setHash(getBytes(buffer));
+            blockInfo.setHashlow(getBytes(buffer));
+            if (buffer.get() != 0) {
+                boolean type = buffer.get() != 0;
+                blockInfo.setSnapshotInfo(new SnapshotInfo(type, getBytes(buffer)));
+            }
+            return blockInfo;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new DeserializationException("Corrupted BlockInfo: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decode a value in either this format or the legacy kryo encoding.
+     */
+    public static BlockInfo decode(byte[] value, KryoCodec legacy) throws DeserializationException {
+        if (isEncoded(value)) {
+            return decode(value);
+        }
+        return (BlockInfo) legacy.deserialize(value, BlockInfo.class);
+    }
+
+    /**
+     * Read the flags of an encoded value without decoding it.
+     */
+    public static int readFlags(byte[] value) {
+        return ByteBuffer.wrap(value).getInt(FLAGS_OFFSET);
+    }
+
+    public static long readAmount(byte[] value) {
+        return ByteBuffer.wrap(value).getLong(AMOUNT_OFFSET);
+    }
+
+    public static long readHeight(byte[] value) {
+        return ByteBuffer.wrap(value).getLong(HEIGHT_OFFSET);
+    }
+
+    public static long readTimestamp(byte[] value) {
+        return ByteBuffer.wrap(value).getLong(TIMESTAMP_OFFSET);
+    }
+
+    private static int sizeOf(byte[] data) {
+        return 4 + (data == null ? 0 : data.length);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] data) {
+        if (data == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(data.length).put(data);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+}
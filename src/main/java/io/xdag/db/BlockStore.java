@@ -24,12 +24,12 @@
 
 package io.xdag.db;
 
-import static io.xdag.utils.BytesUtils.equalBytes;
+import static io.xdag.config.Constants.BI_MAIN;
+import static io.xdag.config.Constants.BI_OURS;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.KryoException;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.UnsignedLong;
 import io.xdag.core.Address;
@@ -44,16 +44,19 @@ import io.xdag.db.execption.DeserializationException;
 import io.xdag.db.execption.SerializationException;
 import io.xdag.core.SnapshotInfo;
 import io.xdag.utils.BytesUtils;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -69,6 +72,7 @@ public class BlockStore {
     public static final byte TIME_HASH_INFO = 0x20;
     public static final byte HASH_BLOCK_INFO = 0x30;
     public static final byte SUMS_BLOCK_INFO = 0x40;
+    public static final byte SUMS_SLOT_INFO = 0x41;
     public static final byte OURS_BLOCK_INFO = 0x50;
 
 
@@ -85,35 +89,69 @@ public class BlockStore {
     // tx history
     public static final byte TX_HISTORY = (byte) 0xa0;
 
+    // storage format version of block infos
+    public static final byte SETTING_BLOCK_INFO_FORMAT = (byte) 0xb0;
+
+    // randomx pow hash of a block
+    public static final byte POW_HASH = (byte) 0xc0;
+
+    // our main blocks by height
+    public static final byte MINED_BLOCK = (byte) 0xd0;
+    public static final byte SETTING_MINED_BLOCK_INDEX = (byte) 0xb1;
+
     public static final String SUM_FILE_NAME = "sums.dat";
 
-    private final Kryo kryo;
+    public static final long DEFAULT_BLOCK_INFO_CACHE_SIZE = 64 * 1024;
+    public static final long DEFAULT_BLOCK_INFO_CACHE_WEIGHT = 64L * 1024 * 1024;
+
+    /**
+     * rough heap footprint of a BlockInfo without its variable length arrays
+     */
+    private static final int BLOCK_INFO_BASE_WEIGHT = 256;
+
+    /**
+     * number of block infos rewritten per write batch during format migration
+     */
+    private static final int MIGRATION_BATCH_SIZE = 10000;
+
+    private final KryoCodec kryo;
+
+    /**
+     * <hashlow,blockInfo> write-through cache of deserialized block infos
+     */
+    private final Cache<Bytes32, BlockInfo> blockInfoCache;
+
+    /**
+     * <hashlow,blockInfo> infos saved in the open batch, only read by the batch's thread and moved into
+     * {@link #blockInfoCache} once the batch is written
+     */
+    private final Map<Bytes32, BlockInfo> pendingBlockInfos = new ConcurrentHashMap<>();
 
     /**
      * <prefix-hash,value> eg:<diff-hash,blockDiff>
      */
-    private final KVSource<byte[], byte[]> indexSource;
+    private final BatchedKVSource indexSource;
     /**
      * <prefix-time-hash,hash>
      */
-    private final KVSource<byte[], byte[]> timeSource;
+    private final BatchedKVSource timeSource;
     /**
      * <hash,rawData>
      */
-    private final KVSource<byte[], byte[]> blockSource;
+    private final BatchedKVSource blockSource;
+
+    private final BatchedKVSource txHistorySource;
 
-    private final KVSource<byte[], byte[]> txHistorySource;
+    private final SumsStore sumsStore;
+
+    @Getter
+    private final OurBlocksIndex ourBlocksIndex = new OurBlocksIndex();
 
     public BlockStore(
             KVSource<byte[], byte[]> index,
             KVSource<byte[], byte[]> time,
             KVSource<byte[], byte[]> block) {
-        this.indexSource = index;
-        this.timeSource = time;
-        this.blockSource = block;
-        this.txHistorySource = null;
-        this.kryo = new Kryo();
-        kryoRegister();
+        this(index, time, block, null);
     }
 
     public BlockStore(
@@ -121,12 +159,28 @@ public class BlockStore {
             KVSource<byte[], byte[]> time,
             KVSource<byte[], byte[]> block,
             KVSource<byte[], byte[]> txHistory) {
-        this.indexSource = index;
-        this.timeSource = time;
-        this.blockSource = block;
-        this.kryo = new Kryo();
-        this.txHistorySource = txHistory;
-        kryoRegister();
+        this(index, time, block, txHistory, DEFAULT_BLOCK_INFO_CACHE_SIZE, DEFAULT_BLOCK_INFO_CACHE_WEIGHT);
+    }
+
+    /**
+     * @param blockInfoCacheSize max number of cached block infos
+     * @param blockInfoCacheWeight max estimated heap bytes of cached block infos
+     */
+    public BlockStore(
+            KVSource<byte[], byte[]> index,
+            KVSource<byte[], byte[]> time,
+            KVSource<byte[], byte[]> block,
+            KVSource<byte[], byte[]> txHistory,
+            long blockInfoCacheSize,
+            long blockInfoCacheWeight) {
+        this.indexSource = new BatchedKVSource(index);
+        this.timeSource = new BatchedKVSource(time);
+        this.blockSource = new BatchedKVSource(block);
+        this.kryo = new KryoCodec(BigInteger.class, byte[].class, BlockInfo.class, XdagStats.class,
+                XdagTopStatus.class, SnapshotInfo.class);
+        this.txHistorySource = txHistory == null ? null : new BatchedKVSource(txHistory);
+        this.blockInfoCache = createBlockInfoCache(blockInfoCacheSize, blockInfoCacheWeight);
+        this.sumsStore = new SumsStore(indexSource, kryo);
     }
 
     public static List<String> getFileName(long time) {
@@ -153,6 +207,10 @@ public class BlockStore {
         return BytesUtils.merge(key, hashlow.toArray());
     }
 
+    public static byte[] getMinedKey(long height) {
+        return BytesUtils.merge(MINED_BLOCK, BytesUtils.longToBytes(height, false));
+    }
+
     public static byte[] getOurKey(int index, byte[] hashlow) {
         byte[] key = BytesUtils.merge(OURS_BLOCK_INFO, BytesUtils.intToBytes(index, false));
         key = BytesUtils.merge(key, hashlow);
@@ -182,41 +240,71 @@ public class BlockStore {
         }
     }
 
-    private void kryoRegister() {
-        kryo.register(BigInteger.class);
-        kryo.register(byte[].class);
-        kryo.register(BlockInfo.class);
-        kryo.register(XdagStats.class);
-        kryo.register(XdagTopStatus.class);
-        kryo.register(SnapshotInfo.class);
+    /**
+     * Caffeine can't bound a cache by size and weight at the same time, so every entry weighs at least
+     * weight/size: the entry count then never exceeds size and the estimated bytes never exceed weight.
+     * Maintenance runs on the calling thread so evictions are visible right after the write.
+     */
+    private static Cache<Bytes32, BlockInfo> createBlockInfoCache(long maxSize, long maxWeight) {
+        long minWeight = Math.max(1, maxWeight / Math.max(1, maxSize));
+        return Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .<Bytes32, BlockInfo>weigher((k, v) -> (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(minWeight, weighBlockInfo(v))))
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
     }
 
-    private byte[] serialize(final Object obj) throws SerializationException {
-        synchronized (kryo) {
-            try {
-                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                final Output output = new Output(outputStream);
-                kryo.writeObject(output, obj);
-                output.flush();
-                output.close();
-                return outputStream.toByteArray();
-            } catch (final IllegalArgumentException | KryoException exception) {
-                throw new SerializationException(exception.getMessage(), exception);
-            }
+    private static long weighBlockInfo(BlockInfo blockInfo) {
+        long weight = BLOCK_INFO_BASE_WEIGHT;
+        weight += length(blockInfo.getHash()) + length(blockInfo.getHashlow()) + length(blockInfo.getRef())
+                + length(blockInfo.getMaxDiffLink()) + length(blockInfo.getRemark());
+        if (blockInfo.getSnapshotInfo() != null) {
+            weight += length(blockInfo.getSnapshotInfo().getData());
         }
+        return weight;
+    }
+
+    private static int length(byte[] data) {
+        return data == null ? 0 : data.length;
+    }
+
+    /**
+     * BlockInfo is mutated in place by the blockchain, so the cache never hands out the instance it holds.
+     */
+    private static BlockInfo copyBlockInfo(BlockInfo blockInfo) {
+        BlockInfo copy = new BlockInfo();
+        copy.setType(blockInfo.getType());
+        copy.setFlags(blockInfo.getFlags());
+        copy.setHeight(blockInfo.getHeight());
+        copy.setDifficulty(blockInfo.getDifficulty());
+        copy.setRef(clone(blockInfo.getRef()));
+        copy.setMaxDiffLink(clone(blockInfo.getMaxDiffLink()));
+        copy.setFee(blockInfo.getFee());
+        copy.setRemark(clone(blockInfo.getRemark()));
+        copy.setHash(clone(blockInfo.getHash()));
+        copy.setHashlow(clone(blockInfo.getHashlow()));
+        copy.setAmount(blockInfo.getAmount());
+        copy.setTimestamp(blockInfo.getTimestamp());
+        copy.setSnapshot(blockInfo.isSnapshot());
+        SnapshotInfo snapshotInfo = blockInfo.getSnapshotInfo();
+        if (snapshotInfo != null) {
+            copy.setSnapshotInfo(new SnapshotInfo(snapshotInfo.getType(), clone(snapshotInfo.getData())));
+        }
+        return copy;
+    }
+
+    private static byte[] clone(byte[] data) {
+        return data == null ? null : data.clone();
+    }
+
+    private byte[] serialize(final Object obj) throws SerializationException {
+        return kryo.serialize(obj);
     }
 
     private Object deserialize(final byte[] bytes, Class<?> type) throws DeserializationException {
-        synchronized (kryo) {
-            try {
-                final ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
-                final Input input = new Input(inputStream);
-                return kryo.readObject(input, type);
-            } catch (final IllegalArgumentException | KryoException | NullPointerException exception) {
-                log.debug("Deserialize data:{}", Hex.toHexString(bytes));
-                throw new DeserializationException(exception.getMessage(), exception);
-            }
-        }
+        return kryo.deserialize(bytes, type);
     }
 
     public void init() {
@@ -224,9 +312,173 @@ public class BlockStore {
         timeSource.init();
         blockSource.init();
         txHistorySource.init();
+        migrateBlockInfoFormat();
+        buildMinedBlocksIndex();
+        loadOurBlocksIndex();
+    }
+
+    /**
+     * Fill the mined blocks index of a db created before it existed, from the height index, runs once per db.
+     */
+    private void buildMinedBlocksIndex() {
+        if (indexSource.get(new byte[]{SETTING_MINED_BLOCK_INDEX}) != null) {
+            return;
+        }
+        List<Pair<byte[], byte[]>> rows = new ArrayList<>();
+        indexSource.fetchPrefix(new byte[]{BLOCK_HEIGHT}, pair -> {
+            long height = BytesUtils.bytesToLong(pair.getKey(), 1, false);
+            byte[] value = height > 0 ? indexSource.get(BytesUtils.merge(HASH_BLOCK_INFO, pair.getValue())) : null;
+            if (BlockInfoCodec.isEncoded(value)
+                    && BlockInfoCodec.readHeight(value) == height
+                    && (BlockInfoCodec.readFlags(value) & (BI_MAIN | BI_OURS)) == (BI_MAIN | BI_OURS)) {
+                rows.add(Pair.of(getMinedKey(height), pair.getValue()));
+            }
+            return Boolean.FALSE;
+        });
+        if (!rows.isEmpty()) {
+            log.info("Indexed {} mined blocks", rows.size());
+        }
+        rows.add(Pair.of(new byte[]{SETTING_MINED_BLOCK_INDEX}, new byte[]{1}));
+        indexSource.writeBatch(rows);
+    }
+
+    /**
+     * Build {@link OurBlocksIndex} from the stored keys, the only full scan of them.
+     */
+    private void loadOurBlocksIndex() {
+        ourBlocksIndex.clear();
+        indexSource.fetchPrefix(new byte[]{OURS_BLOCK_INFO}, pair -> {
+            byte[] hashlow = getOurHash(pair.getKey());
+            if (hashlow != null) {
+                addToOurBlocksIndex(getOurIndex(pair.getKey()), hashlow);
+            }
+            return Boolean.FALSE;
+        });
+    }
+
+    private void addToOurBlocksIndex(int index, byte[] hashlow) {
+        long amount = 0;
+        long timestamp = 0;
+        // an info saved in the open batch is applied on commit, until then the block counts with no amount
+        byte[] value = pendingBlockInfos.containsKey(Bytes32.wrap(hashlow)) && indexSource.isBatching() ? null
+                : indexSource.get(BytesUtils.merge(HASH_BLOCK_INFO, hashlow));
+        if (BlockInfoCodec.isEncoded(value)) {
+            amount = BlockInfoCodec.readAmount(value);
+            timestamp = BlockInfoCodec.readTimestamp(value);
+        }
+        ourBlocksIndex.put(index, Bytes32.wrap(hashlow), amount, timestamp);
+    }
+
+    /**
+     * Rewrite kryo encoded block infos in the {@link BlockInfoCodec} format, runs once per db.
+     */
+    private void migrateBlockInfoFormat() {
+        byte[] version = indexSource.get(new byte[]{SETTING_BLOCK_INFO_FORMAT});
+        if (version != null && version[0] >= BlockInfoCodec.VERSION) {
+            return;
+        }
+        List<Pair<byte[], byte[]>> rows = new ArrayList<>();
+        AtomicInteger migrated = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        indexSource.fetchPrefix(new byte[]{HASH_BLOCK_INFO}, pair -> {
+            if (BlockInfoCodec.isEncoded(pair.getValue())) {
+                return Boolean.FALSE;
+            }
+            try {
+                BlockInfo blockInfo = (BlockInfo) deserialize(pair.getValue(), BlockInfo.class);
+                rows.add(Pair.of(pair.getKey(), BlockInfoCodec.encode(blockInfo)));
+            } catch (DeserializationException | SerializationException e) {
+                log.error("can't migrate block info:{}", Hex.toHexString(pair.getKey()), e);
+                failed.incrementAndGet();
+            }
+            if (rows.size() >= MIGRATION_BATCH_SIZE) {
+                migrated.addAndGet(rows.size());
+                indexSource.writeBatch(new ArrayList<>(rows));
+                rows.clear();
+            }
+            return Boolean.FALSE;
+        });
+        migrated.addAndGet(rows.size());
+        // the format is only marked as done once every row converted, otherwise the next start tries again
+        if (failed.get() == 0) {
+            rows.add(Pair.of(new byte[]{SETTING_BLOCK_INFO_FORMAT}, new byte[]{BlockInfoCodec.VERSION}));
+        }
+        indexSource.writeBatch(rows);
+        if (migrated.get() > 0) {
+            log.info("Migrated {} block infos to format version {}", migrated.get(), BlockInfoCodec.VERSION);
+        }
+        if (failed.get() > 0) {
+            log.error("Failed to migrate {} block infos to format version {}, the migration runs again on the next "
+                    + "start", failed.get(), BlockInfoCodec.VERSION);
+        }
+    }
+
+    /**
+     * Start buffering writes, nested calls join the outer batch.
+     */
+    public void beginBatch() {
+        indexSource.beginBatch();
+        timeSource.beginBatch();
+        blockSource.beginBatch();
+        if (txHistorySource != null) {
+            txHistorySource.beginBatch();
+        }
+    }
+
+    /**
+     * Write the buffered rows of each db as one atomic batch, or of all dbs at once when they are column
+     * families of one instance. Raw blocks go last, so a block is only visible through
+     * {@link #hasBlock(Bytes32)} once its index and time rows are on disk.
+     */
+    public void commitBatch() {
+        commitBatch(Collections.emptyList());
+    }
+
+    /**
+     * Commit this store together with the batch sources of other stores, which are written after the raw
+     * blocks. The cached block infos, the amounts of {@link OurBlocksIndex} and the sums only take the values of
+     * the batch once its rows are written.
+     */
+    public void commitBatch(List<BatchedKVSource> others) {
+        List<BatchedKVSource> sources = getBatchSources();
+        sources.addAll(others);
+        boolean written = false;
+        try {
+            BatchedKVSource.commitBatch(sources);
+            written = true;
+        } finally {
+            if (!indexSource.isBatching()) {
+                if (written) {
+                    pendingBlockInfos.forEach((hashlow, blockInfo) -> {
+                        blockInfoCache.put(hashlow, blockInfo);
+                        ourBlocksIndex.update(hashlow, blockInfo.getAmount(), blockInfo.getTimestamp());
+                    });
+                }
+                pendingBlockInfos.clear();
+                sumsStore.endBatch(written);
+            }
+        }
+    }
+
+    /**
+     * Sources of the batch in commit order.
+     */
+    private List<BatchedKVSource> getBatchSources() {
+        List<BatchedKVSource> sources = new ArrayList<>();
+        if (txHistorySource != null) {
+            sources.add(txHistorySource);
+        }
+        sources.add(timeSource);
+        sources.add(indexSource);
+        sources.add(blockSource);
+        return sources;
     }
 
     public void reset() {
+        pendingBlockInfos.clear();
+        blockInfoCache.invalidateAll();
+        ourBlocksIndex.clear();
+        sumsStore.reset();
         indexSource.reset();
         timeSource.reset();
         blockSource.reset();
@@ -295,61 +547,37 @@ public class BlockStore {
 
     public void saveOurBlock(int index, byte[] hashlow) {
         indexSource.put(getOurKey(index, hashlow), new byte[]{0});
+        addToOurBlocksIndex(index, hashlow);
     }
 
     public Bytes getOurBlock(int index) {
-        AtomicReference<Bytes> blockHashLow = new AtomicReference<>(Bytes.of(0));
-        fetchOurBlocks(pair -> {
-            int keyIndex = pair.getKey();
-            if (keyIndex == index) {
-                if (pair.getValue() != null && pair.getValue().getHashLow() != null) {
-                    blockHashLow.set(pair.getValue().getHashLow());
-                    return Boolean.TRUE;
-                } else {
-                    return Boolean.FALSE;
-                }
-            }
-            return Boolean.FALSE;
-        });
-        return blockHashLow.get();
+        OurBlocksIndex.OurBlock block = ourBlocksIndex.getFirst(index);
+        return block == null ? Bytes.of(0) : block.getHashlow();
     }
 
     public int getKeyIndexByHash(Bytes32 hashlow) {
-        AtomicInteger keyIndex = new AtomicInteger(-1);
-        fetchOurBlocks(pair -> {
-            Block block = pair.getValue();
-            if (hashlow.equals(block.getHashLow())) {
-                int index = pair.getKey();
-                keyIndex.set(index);
-                return Boolean.TRUE;
-            }
-            return Boolean.FALSE;
-        });
-        return keyIndex.get();
+        return ourBlocksIndex.getKeyIndex(hashlow);
     }
 
     public void removeOurBlock(byte[] hashlow) {
-        fetchOurBlocks(pair -> {
-            Block block = pair.getValue();
-            if (equalBytes(hashlow, block.getHashLow().toArray())) {
-                int index = pair.getKey();
-                indexSource.delete(getOurKey(index, hashlow));
-                return Boolean.TRUE;
-            }
-            return Boolean.FALSE;
-        });
+        int index = ourBlocksIndex.getKeyIndex(Bytes32.wrap(hashlow));
+        if (index >= 0) {
+            indexSource.delete(getOurKey(index, hashlow));
+            ourBlocksIndex.remove(Bytes32.wrap(hashlow));
+        }
+    }
+
+    /**
+     * Visit our blocks with their amount and time, from memory.
+     */
+    public void fetchOurBlockAmounts(Function<OurBlocksIndex.OurBlock, Boolean> function) {
+        ourBlocksIndex.forEach(function);
     }
 
     public void fetchOurBlocks(Function<Pair<Integer, Block>, Boolean> function) {
-        indexSource.fetchPrefix(new byte[]{OURS_BLOCK_INFO}, pair -> {
-            int index = getOurIndex(pair.getKey());
-//            Block block = getBlockInfoByHash(Bytes32.wrap(pair.getValue()));
-            assert getOurHash(pair.getKey()) != null;
-            Block block = getBlockInfoByHash(Bytes32.wrap(getOurHash(pair.getKey())));
-            if (function.apply(Pair.of(index, block))) {
-                return Boolean.TRUE;
-            }
-            return Boolean.FALSE;
+        ourBlocksIndex.forEach(ourBlock -> {
+            Block block = getBlockInfoByHash(ourBlock.getHashlow());
+            return function.apply(Pair.of(ourBlock.getIndex(), block));
         });
     }
 
@@ -364,56 +592,20 @@ public class BlockStore {
     }
 
     public MutableBytes getSums(String key) {
-        byte[] value = indexSource.get(BytesUtils.merge(SUMS_BLOCK_INFO, key.getBytes(StandardCharsets.UTF_8)));
-        if (value == null) {
+        long[] sums = sumsStore.get(key);
+        if (sums == null) {
             return null;
-        } else {
-            MutableBytes sums = null;
-            try {
-                sums = MutableBytes.wrap((byte[]) deserialize(value, byte[].class));
-            } catch (DeserializationException e) {
-                log.error(e.getMessage(), e);
-            }
-            return sums;
         }
-    }
-
-    public void putSums(String key, Bytes sums) {
-        byte[] value = null;
-        try {
-            value = serialize(sums.toArray());
-        } catch (SerializationException e) {
-            log.error(e.getMessage(), e);
+        MutableBytes buf = MutableBytes.create(16 * SumsStore.SLOTS);
+        for (int i = 0; i < SumsStore.SLOTS; i++) {
+            buf.set(i * 16, Bytes.wrap(BytesUtils.longToBytes(sums[2 * i], true)));
+            buf.set(i * 16 + 8, Bytes.wrap(BytesUtils.longToBytes(sums[2 * i + 1], true)));
         }
-        indexSource.put(BytesUtils.merge(SUMS_BLOCK_INFO, key.getBytes(StandardCharsets.UTF_8)), value);
+        return buf;
     }
 
     public void updateSum(String key, long sum, long size, long index) {
-        MutableBytes sums = getSums(key);
-        if (sums == null) {
-//            sums = new byte[4096];
-            sums = MutableBytes.create(4096);
-//            System.arraycopy(BytesUtils.longToBytes(sum, true), 0, sums, (int) (16 * index), 8);
-            sums.set((int) (16 * index), Bytes.wrap(BytesUtils.longToBytes(sum, true)));
-//            System.arraycopy(BytesUtils.longToBytes(size, true), 0, sums, (int) (index * 16 + 8), 8);
-            sums.set((int) (index * 16 + 8), Bytes.wrap(BytesUtils.longToBytes(size, true)));
-            putSums(key, sums);
-        } else {
-            // size + sum
-//            byte[] data = ArrayUtils.subarray(sums, 16 * (int)index, 16 * (int)index + 16);
-            MutableBytes data = sums.slice(16 * (int) index, 16).mutableCopy();
-//            sum += BytesUtils.bytesToLong(data, 0, true);
-            sum += data.getLong(0, ByteOrder.LITTLE_ENDIAN);
-//            size += BytesUtils.bytesToLong(data, 8, true);
-            size += data.getLong(8, ByteOrder.LITTLE_ENDIAN);
-//            System.arraycopy(BytesUtils.longToBytes(sum, true), 0, data, 0, 8);
-            data.set(0, Bytes.wrap(BytesUtils.longToBytes(sum, true)));
-//            System.arraycopy(BytesUtils.longToBytes(size, true), 0, data, 8, 8);
-            data.set(8, Bytes.wrap(BytesUtils.longToBytes(size, true)));
-//            System.arraycopy(data, 0, sums, 16 * (int)index, 16);
-            sums.set(16 * (int) index, data.slice(0, 16));
-            putSums(key, sums);
-        }
+        sumsStore.add(key, (int) index, sum, size);
     }
 
     public int loadSum(long starttime, long endtime, MutableBytes sums) {
@@ -441,7 +633,7 @@ public class BlockStore {
             key = files.get(0);
         }
 
-        Bytes buf = getSums(key);
+        long[] buf = sumsStore.get(key);
         if (buf == null) {
 //            Arrays.fill(sums, (byte)0);
             sums.fill((byte) 0);
@@ -453,12 +645,8 @@ public class BlockStore {
 //            Arrays.fill(sums, (byte)0);
             sums.fill((byte) 0);
             for (int i = 0; i < 256; i++) {
-//                long totalsum = BytesUtils.bytesToLong(buf, i * 16, true);
-                long totalsum = buf.getLong(i * 16, ByteOrder.LITTLE_ENDIAN);
-                sum += totalsum;
-//                long totalsize = BytesUtils.bytesToLong(buf, i * 16 + 8, true);
-                long totalsize = buf.getLong(i * 16 + 8, ByteOrder.LITTLE_ENDIAN);
-                size += totalsize;
+                sum += buf[2 * i];
+                size += buf[2 * i + 1];
                 if (i % 16 == 0 && i != 0) {
 //                    System.arraycopy(BytesUtils.longToBytes(sum, true), 0, sums, i - 16, 8);
                     sums.set(i - 16, Bytes.wrap(BytesUtils.longToBytes(sum, true)));
@@ -469,9 +657,12 @@ public class BlockStore {
                 }
             }
         } else {
-            long index = (starttime >> (level + 4) * 4) & 0xf0;
+            int index = (int) ((starttime >> (level + 4) * 4) & 0xf0);
 //            System.arraycopy(buf, (int) (index * 16), sums, 0, 16 * 16);
-            sums.set(0, buf.slice((int) index * 16, 16 * 16));
+            for (int i = 0; i < 16; i++) {
+                sums.set(i * 16, Bytes.wrap(BytesUtils.longToBytes(buf[2 * (index + i)], true)));
+                sums.set(i * 16 + 8, Bytes.wrap(BytesUtils.longToBytes(buf[2 * (index + i) + 1], true)));
+            }
         }
         return 1;
     }
@@ -479,11 +670,18 @@ public class BlockStore {
     public void saveBlockInfo(BlockInfo blockInfo) {
         byte[] value = null;
         try {
-            value = serialize(blockInfo);
+            value = BlockInfoCodec.encode(blockInfo);
         } catch (SerializationException e) {
             log.error(e.getMessage(), e);
         }
         indexSource.put(BytesUtils.merge(HASH_BLOCK_INFO, blockInfo.getHashlow()), value);
+        Bytes32 hashlow = Bytes32.wrap(blockInfo.getHashlow().clone());
+        if (indexSource.isBatching()) {
+            pendingBlockInfos.put(hashlow, copyBlockInfo(blockInfo));
+        } else {
+            blockInfoCache.put(hashlow, copyBlockInfo(blockInfo));
+            ourBlocksIndex.update(hashlow, blockInfo.getAmount(), blockInfo.getTimestamp());
+        }
         // 如果区块是主块的话顺便保存对应的高度信息
         // TODO: paulochen 如果回滚了，对应高度的键值对该怎么更新(直接让其height=0的区块覆盖)
 //        if (blockInfo.getHeight() > 0) {
@@ -497,7 +695,31 @@ public class BlockStore {
         return blockSource.get(hashlow.toArray()) != null;
     }
 
+    /**
+     * Flags of a block without decoding its info.
+     *
+     * @return empty if no info is stored for the block
+     */
+    public OptionalInt getBlockInfoFlags(Bytes32 hashlow) {
+        BlockInfo cached = getCachedBlockInfo(hashlow);
+        if (cached != null) {
+            return OptionalInt.of(cached.getFlags());
+        }
+        byte[] value = indexSource.get(BytesUtils.merge(HASH_BLOCK_INFO, hashlow.toArray()));
+        if (value == null) {
+            return OptionalInt.empty();
+        }
+        if (BlockInfoCodec.isEncoded(value)) {
+            return OptionalInt.of(BlockInfoCodec.readFlags(value));
+        }
+        Block block = getBlockInfoByHash(hashlow);
+        return block.getInfo() == null ? OptionalInt.empty() : OptionalInt.of(block.getInfo().getFlags());
+    }
+
     public boolean hasBlockInfo(Bytes32 hashlow) {
+        if (getCachedBlockInfo(hashlow) != null) {
+            return true;
+        }
         return indexSource.get(BytesUtils.merge(HASH_BLOCK_INFO, hashlow.toArray())) != null;
     }
 
@@ -515,18 +737,42 @@ public class BlockStore {
         return res;
     }
 
+    /**
+     * 按时间索引顺序遍历[startTime, endTime)内区块的原始数据, 不解析区块, func返回true时停止
+     *
+     * @param from 从该时间索引key之后继续遍历, null则从startTime开始
+     */
+    public void fetchRawBlocksByTime(long startTime, long endTime, byte[] from,
+            BiFunction<byte[], byte[], Boolean> func) {
+        // 与getBlocksUsedTime一致, 包含endTime所在的时间片
+        byte[] end = getTimeKey(endTime + 0xffff, null);
+        byte[] seek = from != null ? Arrays.copyOf(from, from.length + 1) : getTimeKey(startTime, null);
+        timeSource.fetchPrefix(new byte[]{TIME_HASH_INFO}, seek, false, pair -> {
+            byte[] key = pair.getKey();
+            // 1 + 8 : prefix + time
+            if (Arrays.compareUnsigned(key, 0, 1 + 8, end, 0, 1 + 8) >= 0) {
+                return Boolean.TRUE;
+            }
+            byte[] raw = blockSource.get(BytesUtils.subArray(key, 1 + 8, 32));
+            if (raw == null) {
+                return Boolean.FALSE;
+            }
+            return func.apply(key, raw);
+        });
+    }
+
     public List<Block> getBlocksByTime(long startTime) {
         List<Block> blocks = Lists.newArrayList();
         byte[] keyPrefix = getTimeKey(startTime, null);
-        List<byte[]> keys = timeSource.prefixKeyLookup(keyPrefix);
-        for (byte[] bytes : keys) {
+        timeSource.fetchPrefix(keyPrefix, pair -> {
             // 1 + 8 : prefix + time
-            byte[] hash = BytesUtils.subArray(bytes, 1 + 8, 32);
+            byte[] hash = BytesUtils.subArray(pair.getKey(), 1 + 8, 32);
             Block block = getBlockByHash(Bytes32.wrap(hash), true);
             if (block != null) {
                 blocks.add(block);
             }
-        }
+            return Boolean.FALSE;
+        });
         return blocks;
     }
 
@@ -564,8 +810,9 @@ public class BlockStore {
     }
 
     public Block getBlockInfoByHash(Bytes32 hashlow) {
-        if (!hasBlockInfo(hashlow)) {
-            return null;
+        BlockInfo cached = getCachedBlockInfo(hashlow);
+        if (cached != null) {
+            return new Block(copyBlockInfo(cached));
         }
         BlockInfo blockInfo = null;
         byte[] value = indexSource.get(BytesUtils.merge(HASH_BLOCK_INFO, hashlow.toArray()));
@@ -573,16 +820,38 @@ public class BlockStore {
             return null;
         } else {
             try {
-                blockInfo = (BlockInfo) deserialize(value, BlockInfo.class);
+                blockInfo = BlockInfoCodec.decode(value, kryo);
             } catch (DeserializationException e) {
                 log.error("hash low:" + hashlow.toHexString());
                 log.error("can't deserialize data:{}", Hex.toHexString(value));
                 log.error(e.getMessage(), e);
             }
         }
+        if (blockInfo != null) {
+            // an info committed since the read above is already cached and must not be replaced by the old one
+            blockInfoCache.asMap().putIfAbsent(hashlow.copy(), copyBlockInfo(blockInfo));
+        }
         return new Block(blockInfo);
     }
 
+    /**
+     * The calling thread sees the infos saved in its open batch, other threads only committed ones.
+     */
+    private BlockInfo getCachedBlockInfo(Bytes32 hashlow) {
+        BlockInfo pending = pendingBlockInfos.isEmpty() ? null : pendingBlockInfos.get(hashlow);
+        if (pending != null && indexSource.isBatching()) {
+            return pending;
+        }
+        return blockInfoCache.getIfPresent(hashlow);
+    }
+
+    /**
+     * hit, miss and eviction counters of the block info cache
+     */
+    public CacheStats getBlockInfoCacheStats() {
+        return blockInfoCache.stats();
+    }
+
     public boolean isSnapshotBoot() {
         byte[] data = indexSource.get(new byte[]{SNAPSHOT_BOOT});
         if (data == null) {
@@ -605,6 +874,49 @@ public class BlockStore {
         return indexSource.get(new byte[]{SNAPSHOT_PRESEED});
     }
 
+    public void saveMinedBlock(long height, byte[] hashlow) {
+        indexSource.put(getMinedKey(height), hashlow);
+    }
+
+    public void removeMinedBlock(long height) {
+        indexSource.delete(getMinedKey(height));
+    }
+
+    /**
+     * Hashlows of our latest main blocks, highest first.
+     */
+    public List<Bytes32> getMinedBlocks(int count) {
+        List<Bytes32> res = new ArrayList<>();
+        if (count <= 0) {
+            return res;
+        }
+        indexSource.fetchPrefix(new byte[]{MINED_BLOCK}, null, true, pair -> {
+            res.add(Bytes32.wrap(pair.getValue()));
+            return res.size() >= count;
+        });
+        return res;
+    }
+
+    /**
+     * Keep the randomx hash of a block together with the seed it was computed with, a reorg across a seed
+     * switch changes the seed of the block's epoch and so its hash.
+     */
+    public void savePowHash(Bytes32 hashlow, byte[] seed, byte[] powHash) {
+        indexSource.put(BytesUtils.merge(POW_HASH, hashlow.toArray()), BytesUtils.merge(powHash, seed));
+    }
+
+    /**
+     * @return the stored randomx hash, null when there is none or it was computed with another seed
+     */
+    public byte[] getPowHash(Bytes32 hashlow, byte[] seed) {
+        byte[] value = indexSource.get(BytesUtils.merge(POW_HASH, hashlow.toArray()));
+        if (value == null || value.length != 32 + seed.length
+                || !Arrays.equals(value, 32, value.length, seed, 0, seed.length)) {
+            return null;
+        }
+        return Arrays.copyOf(value, 32);
+    }
+
 
     public void saveTxHistory(Bytes32 addressHashlow, Bytes32 txHashlow, XdagField.FieldType type, BigInteger amount,
             long time, int id, byte[] remark) { // id is used to avoid repeat key
@@ -626,27 +938,45 @@ public class BlockStore {
     }
 
     public List<TxHistory> getTxHistoryByAddress(Bytes32 addressHashlow) {
-        List<byte[]> values = txHistorySource.prefixValueLookup(BytesUtils.merge(TX_HISTORY, addressHashlow.toArray()));
+        return getTxHistoryByAddress(addressHashlow, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * One page of the history of an address, rows are streamed from the db and the scan stops once the page is
+     * full.
+     *
+     * @param offset number of leading rows to skip
+     * @param limit maximum number of rows returned
+     */
+    public List<TxHistory> getTxHistoryByAddress(Bytes32 addressHashlow, int offset, int limit) {
         List<TxHistory> res = new ArrayList<>();
+        int[] skip = {offset};
+        txHistorySource.fetchPrefix(BytesUtils.merge(TX_HISTORY, addressHashlow.toArray()), pair -> {
+            if (skip[0] > 0) {
+                skip[0]--;
+                return Boolean.FALSE;
+            }
+            res.add(parseTxHistory(pair.getValue()));
+            return res.size() >= limit;
+        });
+        return res;
+    }
 
-        for (byte[] value : values) {
-            byte type = BytesUtils.subArray(value, 0, 1)[0];
-            XdagField.FieldType fieldType = XdagField.FieldType.fromByte(type);
-            Bytes32 hashlow = Bytes32.wrap(BytesUtils.subArray(value, 1, 32));
-            long amount = BytesUtils.bytesToLong(BytesUtils.subArray(value, 33, 8), 0, true);
-            long timestamp = BytesUtils.bytesToLong(BytesUtils.subArray(value, 41, 8), 0, true);
-            Address address = new Address(hashlow, fieldType, amount);
+    private static TxHistory parseTxHistory(byte[] value) {
+        byte type = value[0];
+        XdagField.FieldType fieldType = XdagField.FieldType.fromByte(type);
+        Bytes32 hashlow = Bytes32.wrap(BytesUtils.subArray(value, 1, 32));
+        long amount = BytesUtils.bytesToLong(value, 33, true);
+        long timestamp = BytesUtils.bytesToLong(value, 41, true);
+        Address address = new Address(hashlow, fieldType, amount);
 
-            long remarkLength = BytesUtils.bytesToLong(BytesUtils.subArray(value, 49, 8), 0, true);
+        long remarkLength = BytesUtils.bytesToLong(value, 49, true);
 
-            String remark = "";
-            if (remarkLength != 0) {
-                remark = new String(BytesUtils.subArray(value, 57, (int) remarkLength), StandardCharsets.UTF_8).trim();
-            }
-            res.add(new TxHistory(address, timestamp, remark));
+        String remark = "";
+        if (remarkLength != 0) {
+            remark = new String(value, 57, (int) remarkLength, StandardCharsets.UTF_8).trim();
         }
-        return res;
-
+        return new TxHistory(address, timestamp, remark);
     }
 }
 
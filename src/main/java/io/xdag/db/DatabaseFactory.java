@@ -24,10 +24,17 @@
 
 package io.xdag.db;
 
+import java.util.Map;
+
 public interface DatabaseFactory {
 
     KVSource<byte[], byte[]> getDB(DatabaseName name);
 
+    /**
+     * Storage metrics of every opened database keyed by its name, empty when statistics are off.
+     */
+    Map<String, Map<String, Object>> getMetrics();
+
     /**
      * Close all opened resources.
      */
@@ -50,11 +50,27 @@ public interface KVSource<K, V> {
 
     void delete(K key);
 
+    /**
+     * Apply all rows as one atomic write, a null value deletes the key.
+     */
+    void writeBatch(List<Pair<K, V>> rows);
+
     Set<byte[]> keys() throws RuntimeException;
 
     List<K> prefixKeyLookup(byte[] key);
 
-    void fetchPrefix(byte[] key, Function<Pair<K, V>, Boolean> func);
+    default void fetchPrefix(byte[] key, Function<Pair<K, V>, Boolean> func) {
+        fetchPrefix(key, null, false, func);
+    }
+
+    /**
+     * Stream the rows starting with prefix to func one at a time, stopping as soon as it returns true.
+     *
+     * @param from key within the prefix to start at, or the nearest one past it in the direction of iteration, null for the
+     *             first (last when reversed) row of the prefix
+     * @param reverse iterate in descending key order
+     */
+    void fetchPrefix(byte[] prefix, byte[] from, boolean reverse, Function<Pair<K, V>, Boolean> func);
 
     List<V> prefixValueLookup(byte[] key);
 
@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import io.xdag.db.execption.DeserializationException;
+import io.xdag.db.execption.SerializationException;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * Thread safe kryo serializer. Kryo, Input and Output instances are not thread safe, so each call borrows
+ * its own from a pool instead of locking a shared instance.
+ */
+@Slf4j
+public class KryoCodec {
+
+    /**
+     * initial size of a pooled output buffer, a serialized BlockInfo fits without growing
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 512;
+
+    /**
+     * outputs grown past this size are dropped instead of returned to the pool
+     */
+    private static final int MAX_POOLED_OUTPUT_SIZE = 64 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int POOL_CAPACITY = Runtime.getRuntime().availableProcessors() * 4;
+
+    private final Pool<Kryo> kryoPool;
+
+    private final Pool<Output> outputPool;
+
+    private final Pool<Input> inputPool;
+
+    /**
+     * @param types classes registered with every kryo instance, in registration order
+     */
+    public KryoCodec(Class<?>... types) {
+        this.kryoPool = new Pool<>(true, false, POOL_CAPACITY) {
+            @Override
+            protected Kryo create() {
+                Kryo kryo = new Kryo();
+                for (Class<?> type : types) {
+                    kryo.register(type);
+                }
+                return kryo;
+            }
+        };
+        this.outputPool = new Pool<>(true, false, POOL_CAPACITY) {
+            @Override
+            protected Output create() {
+                return new Output(OUTPUT_BUFFER_SIZE, -1);
+            }
+        };
+        this.inputPool = new Pool<>(true, false, POOL_CAPACITY) {
+            @Override
+            protected Input create() {
+                return new Input();
+            }
+        };
+    }
+
+    public byte[] serialize(final Object obj) throws SerializationException {
+        Kryo kryo = kryoPool.obtain();
+        Output output = outputPool.obtain();
+        try {
+            output.reset();
+            kryo.writeObject(output, obj);
+            return output.toBytes();
+        } catch (final IllegalArgumentException | KryoException exception) {
+            throw new SerializationException(exception.getMessage(), exception);
+        } finally {
+            kryoPool.free(kryo);
+            if (output.getBuffer().length <= MAX_POOLED_OUTPUT_SIZE) {
+                outputPool.free(output);
+            }
+        }
+    }
+
+    public Object deserialize(final byte[] bytes, Class<?> type) throws DeserializationException {
+        Kryo kryo = kryoPool.obtain();
+        Input input = inputPool.obtain();
+        try {
+            input.setBuffer(bytes);
+            return kryo.readObject(input, type);
+        } catch (final IllegalArgumentException | KryoException | NullPointerException exception) {
+            log.debug("Deserialize data:{}", bytes == null ? null : Hex.toHexString(bytes));
+            throw new DeserializationException(exception.getMessage(), exception);
+        } finally {
+            // drop the reference to the caller's bytes before pooling
+            input.setBuffer(EMPTY);
+            kryoPool.free(kryo);
+            inputPool.free(input);
+        }
+    }
+}
@@ -27,16 +27,22 @@ package io.xdag.db;
 import io.xdag.core.Address;
 import io.xdag.core.Block;
 import io.xdag.core.XdagField;
-import io.xdag.db.KVSource;
 import io.xdag.utils.BytesUtils;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.tuweni.bytes.Bytes32;
 import org.bouncycastle.util.encoders.Hex;
 
+/**
+ * Orphan blocks waiting to be linked. The db rows are mirrored by an in-memory index ordered by timestamp and
+ * hashlow, so picking the oldest orphans costs O(k) no matter how large the pool gets.
+ */
 @Slf4j
 public class OrphanPool {
 
@@ -46,48 +52,101 @@ public class OrphanPool {
      */
     private static final byte[] ORPHAN_SIZE = Hex.decode("FFFFFFFFFFFFFFFF");
     // <hash,nexthash>
-    private final KVSource<byte[], byte[]> orphanSource;
+    private final BatchedKVSource orphanSource;
+
+    /**
+     * big endian timestamp + hashlow of every orphan, iterated oldest first
+     */
+    private final ConcurrentSkipListSet<byte[]> timeIndex = new ConcurrentSkipListSet<>(Arrays::compareUnsigned);
+
+    private final Map<Bytes32, Long> orphanTimes = new ConcurrentHashMap<>();
+
+    private final AtomicLong size = new AtomicLong();
 
     public OrphanPool(KVSource<byte[], byte[]> orphan) {
-        this.orphanSource = orphan;
+        this.orphanSource = new BatchedKVSource(orphan);
+    }
+
+    public void beginBatch() {
+        orphanSource.beginBatch();
+    }
+
+    public void commitBatch() {
+        orphanSource.commitBatch();
+    }
+
+    public BatchedKVSource getBatchSource() {
+        return orphanSource;
     }
 
     public void init() {
         this.orphanSource.init();
-        if (orphanSource.get(ORPHAN_SIZE) == null) {
-            this.orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(0, false));
-        }
+        loadIndex();
+        this.orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(size.get(), false));
     }
 
     public void reset() {
         this.orphanSource.reset();
+        clearIndex();
         this.orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(0, false));
     }
 
+    /**
+     * Rebuild the index from the db rows, the stored counter is not trusted since older versions could let it
+     * drift from the rows.
+     */
+    private void loadIndex() {
+        clearIndex();
+        orphanSource.fetchPrefix(new byte[]{ORPHAN_PREFEX}, pair -> {
+            // TODO:判断时间，这里出现过orphanSource获取key时为空的情况
+            if (pair.getValue() != null && pair.getKey().length == 33) {
+                index(Bytes32.wrap(pair.getKey(), 1), BytesUtils.bytesToLong(pair.getValue(), 0, true));
+            }
+            return Boolean.FALSE;
+        });
+        log.info("Load {} orphans into orphan index", size.get());
+    }
+
+    private void clearIndex() {
+        timeIndex.clear();
+        orphanTimes.clear();
+        size.set(0);
+    }
+
+    private boolean index(Bytes32 hashlow, long time) {
+        Long old = orphanTimes.put(hashlow, time);
+        if (old != null) {
+            timeIndex.remove(getIndexKey(old, hashlow));
+        }
+        timeIndex.add(getIndexKey(time, hashlow));
+        if (old == null) {
+            size.incrementAndGet();
+        }
+        return old == null;
+    }
+
+    private static byte[] getIndexKey(long time, Bytes32 hashlow) {
+        return BytesUtils.merge(BytesUtils.longToBytes(time, false), hashlow.toArray());
+    }
+
     public List<Address> getOrphan(long num, long[] sendtime) {
         List<Address> res = new ArrayList<>();
-        if (orphanSource.get(ORPHAN_SIZE) == null || getOrphanSize() == 0) {
+        if (size.get() == 0) {
             return null;
         } else {
-            long orphanSize = getOrphanSize();
-            long addNum = Math.min(orphanSize, num);
-            byte[] key = BytesUtils.of(ORPHAN_PREFEX);
-            List<Pair<byte[],byte[]>> ans = orphanSource.prefixKeyAndValueLookup(key);
-            ans.sort(Comparator.comparingLong(a -> BytesUtils.bytesToLong(a.getValue(), 0, true)));
-            for (Pair<byte[],byte[]> an : ans) {
+            long addNum = Math.min(size.get(), num);
+            for (byte[] key : timeIndex) {
                 if (addNum == 0) {
                     break;
                 }
-                // TODO:判断时间，这里出现过orphanSource获取key时为空的情况
-                if (an.getValue() == null) {
-                    continue;
-                }
-                long time =  BytesUtils.bytesToLong(an.getValue(), 0, true);
-                if (time <= sendtime[0]) {
-                    addNum--;
-                    res.add(new Address(Bytes32.wrap(an.getKey(), 1), XdagField.FieldType.XDAG_FIELD_OUT));
-                    sendtime[1] = Math.max(sendtime[1],time);
+                long time = BytesUtils.bytesToLong(key, 0, false);
+                // the index is ordered by time, nothing after a too young orphan can be sent
+                if (time > sendtime[0]) {
+                    break;
                 }
+                addNum--;
+                res.add(new Address(Bytes32.wrap(key, 8), XdagField.FieldType.XDAG_FIELD_OUT));
+                sendtime[1] = Math.max(sendtime[1], time);
             }
             sendtime[1] = Math.min(sendtime[1]+1,sendtime[0]);
             return res;
@@ -97,24 +156,25 @@ public class OrphanPool {
     public void deleteByHash(byte[] hashlow) {
         log.debug("deleteByhash");
         orphanSource.delete(BytesUtils.merge(ORPHAN_PREFEX, hashlow));
-        long currentsize = BytesUtils.bytesToLong(orphanSource.get(ORPHAN_SIZE), 0, false);
-        orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(currentsize - 1, false));
+        Bytes32 key = Bytes32.wrap(hashlow);
+        Long time = orphanTimes.remove(key);
+        if (time != null) {
+            timeIndex.remove(getIndexKey(time, key));
+            orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(size.decrementAndGet(), false));
+        }
     }
 
     public void addOrphan(Block block) {
         orphanSource.put(BytesUtils.merge(ORPHAN_PREFEX, block.getHashLow().toArray()),
                 BytesUtils.longToBytes(block.getTimestamp(), true));
-        long currentsize = BytesUtils.bytesToLong(orphanSource.get(ORPHAN_SIZE), 0, false);
-        log.debug("orphan current size:" + currentsize);
-//        log.debug(":" + Hex.toHexString(orphanSource.get(ORPHAN_SIZE)));
-        orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(currentsize + 1, false));
+        if (index(block.getHashLow().copy(), block.getTimestamp())) {
+            log.debug("orphan current size:" + size.get());
+            orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(size.get(), false));
+        }
     }
 
     public long getOrphanSize() {
-        long currentsize = BytesUtils.bytesToLong(orphanSource.get(ORPHAN_SIZE), 0, false);
-        log.debug("current orphan size:" + currentsize);
-        log.debug("Hex:" + Hex.toHexString(orphanSource.get(ORPHAN_SIZE)));
-        return currentsize;
+        return size.get();
     }
 
 }
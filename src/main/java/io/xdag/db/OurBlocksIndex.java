@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db;
+
+import io.xdag.utils.BytesUtils;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import lombok.Getter;
+import org.apache.tuweni.bytes.Bytes32;
+
+/**
+ * In-memory copy of the OURS_BLOCK_INFO keys with the amount and time of each block, so wallet queries don't scan
+ * and decode the index db.
+ * <p>
+ * Blocks are ordered like their db keys, by key index then hashlow. Amounts follow every saved block info.
+ * Writes come from the import thread and are serialized, reads don't lock.
+ */
+public class OurBlocksIndex {
+
+    private final NavigableMap<byte[], OurBlock> byKey = new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+    private final Map<Bytes32, byte[]> keysByHash = new ConcurrentHashMap<>();
+    /**
+     * our blocks ordered by timestamp then hashlow, to find the young ones that don't count as spendable yet
+     */
+    private final NavigableMap<byte[], OurBlock> byTime = new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+    /**
+     * sum of the positive amounts of all our blocks
+     */
+    private final AtomicLong totalAmount = new AtomicLong();
+
+    public synchronized void put(int index, Bytes32 hashlow, long amount, long timestamp) {
+        Bytes32 hash = hashlow.copy();
+        byte[] key = BlockStore.getOurKey(index, hash.toArray());
+        byte[] old = keysByHash.put(hash, key);
+        if (old != null && !Arrays.equals(old, key)) {
+            remove(old);
+        }
+        OurBlock block = new OurBlock(index, hash);
+        OurBlock replaced = byKey.put(key, block);
+        if (replaced != null) {
+            totalAmount.addAndGet(-positive(replaced.amount));
+            byTime.remove(getTimeKey(replaced));
+        }
+        byTime.put(getTimeKey(block), block);
+        update(block, amount, timestamp);
+    }
+
+    /**
+     * Follow the stored info of a block, does nothing unless it's one of ours.
+     */
+    public synchronized void update(Bytes32 hashlow, long amount, long timestamp) {
+        byte[] key = keysByHash.get(hashlow);
+        OurBlock block = key == null ? null : byKey.get(key);
+        if (block != null) {
+            update(block, amount, timestamp);
+        }
+    }
+
+    public synchronized boolean remove(Bytes32 hashlow) {
+        byte[] key = keysByHash.remove(hashlow);
+        if (key == null) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    /**
+     * @return the key index of one of our blocks, -1 if it isn't ours
+     */
+    public int getKeyIndex(Bytes32 hashlow) {
+        byte[] key = keysByHash.get(hashlow);
+        OurBlock block = key == null ? null : byKey.get(key);
+        return block == null ? -1 : block.index;
+    }
+
+    /**
+     * @return the first of our blocks signed by the key, null if there is none
+     */
+    public OurBlock getFirst(int index) {
+        Map.Entry<byte[], OurBlock> entry = byKey.ceilingEntry(BlockStore.getOurKey(index, new byte[0]));
+        if (entry == null || entry.getValue().index != index) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Visit our blocks in key order until func returns true.
+     */
+    public void forEach(Function<OurBlock, Boolean> func) {
+        for (OurBlock block : byKey.values()) {
+            if (func.apply(block)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sum of the positive amounts of our blocks with a timestamp up to maxTime, the blocks after it are
+     * usually few so they are subtracted from the running total.
+     */
+    public synchronized long getTotalAmount(long maxTime) {
+        long young = 0;
+        for (OurBlock block : byTime.tailMap(getTimeKey(maxTime + 1, Bytes32.ZERO), true).values()) {
+            young += positive(block.amount);
+        }
+        return totalAmount.get() - young;
+    }
+
+    public int size() {
+        return byKey.size();
+    }
+
+    public synchronized void clear() {
+        byKey.clear();
+        keysByHash.clear();
+        byTime.clear();
+        totalAmount.set(0);
+    }
+
+    private void remove(byte[] key) {
+        OurBlock block = byKey.remove(key);
+        if (block != null) {
+            totalAmount.addAndGet(-positive(block.amount));
+            byTime.remove(getTimeKey(block));
+        }
+    }
+
+    private void update(OurBlock block, long amount, long timestamp) {
+        totalAmount.addAndGet(positive(amount) - positive(block.amount));
+        block.amount = amount;
+        if (block.timestamp != timestamp) {
+            byTime.remove(getTimeKey(block));
+            block.timestamp = timestamp;
+            byTime.put(getTimeKey(block), block);
+        }
+    }
+
+    private static byte[] getTimeKey(OurBlock block) {
+        return getTimeKey(block.timestamp, block.hashlow);
+    }
+
+    private static byte[] getTimeKey(long timestamp, Bytes32 hashlow) {
+        return BytesUtils.merge(BytesUtils.longToBytes(timestamp, false), hashlow.toArray());
+    }
+
+    private static long positive(long amount) {
+        return Math.max(amount, 0);
+    }
+
+    @Getter
+    public static class OurBlock {
+
+        private final int index;
+        private final Bytes32 hashlow;
+        private volatile long amount;
+        private volatile long timestamp;
+
+        private OurBlock(int index, Bytes32 hashlow) {
+            this.index = index;
+            this.hashlow = hashlow;
+        }
+    }
+}
@@ -23,10 +23,6 @@
  */
 package io.xdag.db;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.KryoException;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
 import io.xdag.core.*;
 
 import io.xdag.crypto.Hash;
@@ -45,8 +41,6 @@ import org.bouncycastle.util.encoders.Hex;
 import org.hyperledger.besu.crypto.SECPSignature;
 import org.rocksdb.*;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.util.List;
 
@@ -56,15 +50,12 @@ import static io.xdag.db.BlockStore.*;
 @Slf4j
 public class SnapshotJ extends RocksdbKVSource {
 
-    public static final Kryo kryo = new Kryo();
+    public static final KryoCodec kryo = new KryoCodec(BigInteger.class, byte[].class, BlockInfo.class,
+            XdagStats.class, XdagTopStatus.class, SnapshotInfo.class);
     private long ourBalance = 0L;
     private long nextTime = 0;
     private long height = 0;
 
-    static {
-        kryoRegister();
-    }
-
     public SnapshotJ(String name) {
         super(name);
     }
@@ -76,7 +67,7 @@ public class SnapshotJ extends RocksdbKVSource {
                 BlockInfo blockInfo = new BlockInfo();
                 if (iter.value() != null) {
                     try {
-                        blockInfo = (BlockInfo) deserialize(iter.value(), BlockInfo.class);
+                        blockInfo = BlockInfoCodec.decode(iter.value(), kryo);
                     } catch (DeserializationException e) {
                         log.error("hash low:" + Hex.toHexString(blockInfo.getHashlow()));
                         log.error("can't deserialize data:{}", Hex.toHexString(iter.value()));
@@ -120,7 +111,7 @@ public class SnapshotJ extends RocksdbKVSource {
                     BlockInfo blockInfo = new BlockInfo();
                     if (iter.value() != null) {
                         try {
-                            blockInfo = (BlockInfo) deserialize(iter.value(), BlockInfo.class);
+                            blockInfo = BlockInfoCodec.decode(iter.value(), kryo);
                         } catch (DeserializationException e) {
                             log.error("hash low:" + Hex.toHexString(blockInfo.getHashlow()));
                             log.error("can't deserialize data:{}", Hex.toHexString(iter.value()));
@@ -203,39 +194,10 @@ public class SnapshotJ extends RocksdbKVSource {
     }
 
     public static Object deserialize(final byte[] bytes, Class<?> type) throws DeserializationException {
-        synchronized (kryo) {
-            try {
-                final ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
-                final Input input = new Input(inputStream);
-                return kryo.readObject(input, type);
-            } catch (final IllegalArgumentException | KryoException | NullPointerException exception) {
-                log.debug("Deserialize data:{}", Hex.toHexString(bytes));
-                throw new DeserializationException(exception.getMessage(), exception);
-            }
-        }
+        return kryo.deserialize(bytes, type);
     }
 
     public static byte[] serialize(final Object obj) throws SerializationException {
-        synchronized (kryo) {
-            try {
-                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                final Output output = new Output(outputStream);
-                kryo.writeObject(output, obj);
-                output.flush();
-                output.close();
-                return outputStream.toByteArray();
-            } catch (final IllegalArgumentException | KryoException exception) {
-                throw new SerializationException(exception.getMessage(), exception);
-            }
-        }
-    }
-
-    public static void kryoRegister() {
-        kryo.register(BigInteger.class);
-        kryo.register(byte[].class);
-        kryo.register(BlockInfo.class);
-        kryo.register(XdagStats.class);
-        kryo.register(XdagTopStatus.class);
-        kryo.register(SnapshotInfo.class);
+        return kryo.serialize(obj);
     }
 }
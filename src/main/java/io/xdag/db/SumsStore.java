@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db;
+
+import static io.xdag.db.BlockStore.SUMS_BLOCK_INFO;
+import static io.xdag.db.BlockStore.SUMS_SLOT_INFO;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.xdag.db.execption.DeserializationException;
+import io.xdag.utils.BytesUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Sum and size counters of the sums.dat hierarchy. Every sums file holds 256 slots of (sum, size), each slot
+ * is stored as its own 16 byte little endian row, so adding a block rewrites one small row per level instead of
+ * the whole 4KB file. Recently used files are kept in memory and serve both updates and reads.
+ * <p>
+ * Adds of an open batch are kept apart from the shared cache and only published once the batch's rows are
+ * written, so other threads never read counters that aren't on disk.
+ */
+@Slf4j
+public class SumsStore {
+
+    public static final int SLOTS = 256;
+
+    private static final int SLOT_SIZE = 16;
+
+    private static final long DEFAULT_CACHE_SIZE = 4096;
+
+    private final BatchedKVSource source;
+
+    private final KryoCodec kryo;
+
+    /**
+     * <sums file, [sum0, size0, sum1, size1, ...]>
+     */
+    private final Cache<String, long[]> cache;
+
+    /**
+     * <sums file, counters including the adds of the open batch>, only used by the batch's thread
+     */
+    private final Map<String, long[]> pending = new HashMap<>();
+
+    /**
+     * @param kryo codec of sums files written before the per slot layout
+     */
+    public SumsStore(BatchedKVSource source, KryoCodec kryo) {
+        this.source = source;
+        this.kryo = kryo;
+        this.cache = Caffeine.newBuilder().maximumSize(DEFAULT_CACHE_SIZE).build();
+    }
+
+    /**
+     * Add sum and size of a block to a slot of a sums file.
+     */
+    public synchronized void add(String file, int slot, long sum, long size) {
+        long[] sums = source.isBatching() ? pending.computeIfAbsent(file, f -> load(f).clone()) : load(file);
+        sums[2 * slot] += sum;
+        sums[2 * slot + 1] += size;
+        source.put(slotKey(file, slot), encodeSlot(sums[2 * slot], sums[2 * slot + 1]));
+    }
+
+    /**
+     * @return copy of the counters of a sums file, null if nothing was added to it
+     */
+    public synchronized long[] get(String file) {
+        long[] sums = source.isBatching() ? pending.get(file) : null;
+        if (sums == null) {
+            sums = load(file);
+        }
+        return isEmpty(sums) ? null : sums.clone();
+    }
+
+    /**
+     * End the outermost batch: publish its counters once its rows are written, or drop them when the write
+     * failed.
+     */
+    public synchronized void endBatch(boolean written) {
+        if (written) {
+            pending.forEach(cache::put);
+        }
+        pending.clear();
+    }
+
+    public synchronized void reset() {
+        pending.clear();
+        cache.invalidateAll();
+    }
+
+    private long[] load(String file) {
+        long[] sums = cache.getIfPresent(file);
+        if (sums != null) {
+            return sums;
+        }
+        sums = new long[2 * SLOTS];
+        byte[] prefix = fileKey(SUMS_SLOT_INFO, file);
+        List<Pair<byte[], byte[]>> rows = source.prefixKeyAndValueLookup(prefix);
+        if (rows.isEmpty()) {
+            migrate(file, sums);
+        } else {
+            for (Pair<byte[], byte[]> row : rows) {
+                // a longer file name sharing the prefix can't end right after it, skip anything but slot rows
+                if (row.getKey().length != prefix.length + 1) {
+                    continue;
+                }
+                int slot = row.getKey()[prefix.length] & 0xff;
+                ByteBuffer value = ByteBuffer.wrap(row.getValue()).order(ByteOrder.LITTLE_ENDIAN);
+                sums[2 * slot] = value.getLong();
+                sums[2 * slot + 1] = value.getLong();
+            }
+        }
+        cache.put(file, sums);
+        return sums;
+    }
+
+    /**
+     * Split a legacy kryo encoded 4KB sums file into slot rows.
+     */
+    private void migrate(String file, long[] sums) {
+        byte[] legacyKey = fileKey(SUMS_BLOCK_INFO, file);
+        byte[] value = source.get(legacyKey);
+        if (value == null) {
+            return;
+        }
+        ByteBuffer buf;
+        try {
+            buf = ByteBuffer.wrap((byte[]) kryo.deserialize(value, byte[].class)).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (DeserializationException e) {
+            log.error(e.getMessage(), e);
+            return;
+        }
+        List<Pair<byte[], byte[]>> rows = new ArrayList<>();
+        for (int slot = 0; slot < SLOTS && buf.remaining() >= SLOT_SIZE; slot++) {
+            sums[2 * slot] = buf.getLong();
+            sums[2 * slot + 1] = buf.getLong();
+            if (sums[2 * slot] != 0 || sums[2 * slot + 1] != 0) {
+                rows.add(Pair.of(slotKey(file, slot), encodeSlot(sums[2 * slot], sums[2 * slot + 1])));
+            }
+        }
+        rows.add(Pair.of(legacyKey, null));
+        source.writeBatch(rows);
+    }
+
+    private static boolean isEmpty(long[] sums) {
+        for (long v : sums) {
+            if (v != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] fileKey(byte prefix, String file) {
+        return BytesUtils.merge(prefix, file.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] slotKey(String file, int slot) {
+        return BytesUtils.merge(fileKey(SUMS_SLOT_INFO, file), new byte[]{(byte) slot});
+    }
+
+    private static byte[] encodeSlot(long sum, long size) {
+        return ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN).putLong(sum).putLong(size).array();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db.rocksdb;
+
+import io.xdag.config.Config;
+import io.xdag.db.DatabaseName;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.AbstractNativeReference;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.Statistics;
+import org.rocksdb.WriteBufferManager;
+
+/**
+ * One RocksDB instance hosting the node databases as column families. All column families share one block cache
+ * and one write buffer manager, so the whole store runs on a single memory budget, and writes to several of them
+ * can be committed in one atomic batch. Per column family tuning comes from {@link RocksdbOptions}.
+ */
+@Slf4j
+public class RocksdbColumnFamilies {
+
+    public static final String DB_NAME = "COLUMNFAMILIES";
+
+    /**
+     * databases hosted as column families, everything else keeps its own instance
+     */
+    public static final Set<DatabaseName> COLUMN_FAMILIES = EnumSet.of(DatabaseName.INDEX, DatabaseName.BLOCK,
+            DatabaseName.TIME, DatabaseName.TXHISTORY, DatabaseName.ORPHANIND);
+
+    private final Config config;
+
+    private final Map<String, ColumnFamilyHandle> handles = new HashMap<>();
+
+    private final Map<String, ColumnFamilyOptions> cfOptions = new HashMap<>();
+
+    /**
+     * rate limiter and filters of the options, they outlive the options and are closed with the db
+     */
+    private final List<AbstractNativeReference> natives = new ArrayList<>();
+
+    private RocksDB db;
+
+    private DBOptions dbOptions;
+
+    private LRUCache blockCache;
+
+    private WriteBufferManager writeBufferManager;
+
+    private Statistics statistics;
+
+    private int refCount;
+
+    public RocksdbColumnFamilies(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Open the shared instance on first use.
+     */
+    public synchronized RocksDB acquire() {
+        if (db == null) {
+            open();
+        }
+        refCount++;
+        return db;
+    }
+
+    /**
+     * Close the shared instance once no column family uses it anymore.
+     */
+    public synchronized void release() {
+        if (refCount == 0 || --refCount > 0) {
+            return;
+        }
+        log.debug("Close db: {}", DB_NAME);
+        handles.values().forEach(ColumnFamilyHandle::close);
+        handles.clear();
+        db.close();
+        db = null;
+        cfOptions.values().forEach(ColumnFamilyOptions::close);
+        cfOptions.clear();
+        dbOptions.close();
+        natives.forEach(AbstractNativeReference::close);
+        natives.clear();
+        writeBufferManager.close();
+        blockCache.close();
+        if (statistics != null) {
+            statistics.close();
+            statistics = null;
+        }
+    }
+
+    /**
+     * @return tickers of the shared instance, null when statistics are off
+     */
+    public synchronized Statistics getStatistics() {
+        return statistics;
+    }
+
+    public synchronized ColumnFamilyHandle getHandle(String name) {
+        return handles.get(name);
+    }
+
+    /**
+     * Drop and create a column family, used to reset a single database.
+     */
+    public synchronized ColumnFamilyHandle recreate(String name) {
+        try {
+            ColumnFamilyHandle handle = handles.remove(name);
+            db.dropColumnFamily(handle);
+            handle.close();
+            handle = db.createColumnFamily(new ColumnFamilyDescriptor(name.getBytes(), cfOptions.get(name)));
+            handles.put(name, handle);
+            return handle;
+        } catch (RocksDBException e) {
+            log.error("Failed to reset column family '{}'", name, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void open() {
+        long cacheSize = config.getNodeSpec().getStoreSharedCacheSize();
+        blockCache = new LRUCache(cacheSize);
+        // memtables are charged against the block cache, a quarter of the budget at most
+        writeBufferManager = new WriteBufferManager(cacheSize / 4, blockCache);
+        if (config.getNodeSpec().isStoreStatistics()) {
+            statistics = new Statistics();
+        }
+        dbOptions = RocksdbOptions.dbOptions(config.getNodeSpec(), statistics, natives)
+                .setWriteBufferManager(writeBufferManager);
+
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+        ColumnFamilyOptions defaultOptions = newOptions(null);
+        cfOptions.put(new String(RocksDB.DEFAULT_COLUMN_FAMILY), defaultOptions);
+        descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, defaultOptions));
+        for (DatabaseName name : COLUMN_FAMILIES) {
+            ColumnFamilyOptions options = newOptions(name);
+            cfOptions.put(name.toString(), options);
+            descriptors.add(new ColumnFamilyDescriptor(name.toString().getBytes(), options));
+        }
+
+        try {
+            Path dbPath = Paths.get(config.getNodeSpec().getStoreDir(), DB_NAME);
+            if (!Files.isSymbolicLink(dbPath.getParent())) {
+                Files.createDirectories(dbPath.getParent());
+            }
+            List<ColumnFamilyHandle> opened = new ArrayList<>();
+            log.debug("Initializing new or existing database: '{}'", DB_NAME);
+            db = RocksDB.open(dbOptions, dbPath.toString(), descriptors, opened);
+            for (int i = 1; i < descriptors.size(); i++) {
+                handles.put(new String(descriptors.get(i).getName()), opened.get(i));
+            }
+            // the default column family is unused, its handle belongs to the db
+            opened.get(0).close();
+        } catch (RocksDBException | IOException e) {
+            log.error(e.getMessage(), e);
+            throw new RuntimeException("Failed to initialize database", e);
+        }
+    }
+
+    private ColumnFamilyOptions newOptions(DatabaseName name) {
+        return RocksdbOptions.columnFamilyOptions(config.getNodeSpec(), name == null ? null : name.toString(),
+                RocksdbFactory.prefixSeekLength(name), blockCache, natives);
+    }
+}
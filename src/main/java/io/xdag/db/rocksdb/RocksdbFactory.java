@@ -28,37 +28,106 @@ import io.xdag.config.Config;
 import io.xdag.db.DatabaseFactory;
 import io.xdag.db.DatabaseName;
 import io.xdag.db.KVSource;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.EnumMap;
-import org.apache.commons.lang3.StringUtils;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 public class RocksdbFactory implements DatabaseFactory {
 
     private final EnumMap<DatabaseName, KVSource<byte[], byte[]>> databases = new EnumMap<>(DatabaseName.class);
 
     protected Config config;
 
+    private RocksdbColumnFamilies columnFamilies;
+
+    private boolean layoutChecked;
+
     public RocksdbFactory(Config config) {
         this.config = config;
     }
 
+    /**
+     * fixed key prefix length used for prefix seeks, 0 for none
+     */
+    public static int prefixSeekLength(DatabaseName name) {
+        if (name == DatabaseName.TIME) {
+            return 9;
+        } else if (name == DatabaseName.TXHISTORY) {
+            return 33;
+        }
+        return 0;
+    }
+
     @Override
     public KVSource<byte[], byte[]> getDB(DatabaseName name) {
+        if (!layoutChecked && RocksdbColumnFamilies.COLUMN_FAMILIES.contains(name)) {
+            checkStoreLayout();
+            layoutChecked = true;
+        }
         return databases.computeIfAbsent(
                 name, k -> {
                     RocksdbKVSource dataSource;
-                    // time data source must set fixed prefix length
-                    if (StringUtils.equals(DatabaseName.TIME.toString(), name.toString())) {
-                        dataSource = new RocksdbKVSource(name.toString(), 9);
-                    } else if (StringUtils.equals(DatabaseName.TXHISTORY.toString(), name.toString())) {
-                        dataSource = new RocksdbKVSource(name.toString(), 33);
+                    // time and txhistory data sources must set fixed prefix length
+                    if (config.getNodeSpec().isStoreColumnFamilies()
+                            && RocksdbColumnFamilies.COLUMN_FAMILIES.contains(name)) {
+                        if (columnFamilies == null) {
+                            columnFamilies = new RocksdbColumnFamilies(config);
+                        }
+                        dataSource = new RocksdbKVSource(name.toString(), prefixSeekLength(name), columnFamilies);
                     } else {
-                        dataSource = new RocksdbKVSource(name.toString());
+                        dataSource = new RocksdbKVSource(name.toString(), prefixSeekLength(name));
                     }
                     dataSource.setConfig(config);
                     return dataSource;
                 });
     }
 
+    /**
+     * Toggling node.store.columnFamilies on an existing store would open empty databases next to the data, so
+     * the store on disk has to have the layout of the setting.
+     */
+    private void checkStoreLayout() {
+        String storeDir = config.getNodeSpec().getStoreDir();
+        boolean shared = isRocksdb(storeDir, RocksdbColumnFamilies.DB_NAME);
+        List<String> separate = RocksdbColumnFamilies.COLUMN_FAMILIES.stream()
+                .map(DatabaseName::toString)
+                .filter(name -> isRocksdb(storeDir, name))
+                .toList();
+        String error = null;
+        if (config.getNodeSpec().isStoreColumnFamilies() && !shared && !separate.isEmpty()) {
+            error = String.format("node.store.columnFamilies is on but %s holds the databases %s in separate "
+                    + "instances, turn it off or start from an empty store", storeDir, separate);
+        } else if (!config.getNodeSpec().isStoreColumnFamilies() && shared && separate.isEmpty()) {
+            error = String.format("node.store.columnFamilies is off but %s holds the databases in %s, turn it on "
+                    + "or start from an empty store", storeDir, RocksdbColumnFamilies.DB_NAME);
+        }
+        if (error != null) {
+            log.error(error);
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private static boolean isRocksdb(String storeDir, String name) {
+        return Files.isRegularFile(Paths.get(storeDir, name, "CURRENT"));
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getMetrics() {
+        Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+        databases.forEach((name, db) -> {
+            Map<String, Object> dbMetrics = ((RocksdbKVSource) db).getMetrics();
+            if (!dbMetrics.isEmpty()) {
+                metrics.put(name.toString(), dbMetrics);
+            }
+        });
+        return metrics;
+    }
+
     @Override
     public void close() {
         for (KVSource<byte[], byte[]> db : databases.values()) {
@@ -28,13 +28,20 @@ import com.google.common.collect.Lists;
 import io.xdag.config.Config;
 import io.xdag.db.KVSource;
 import io.xdag.utils.BytesUtils;
+import io.xdag.utils.LatencyHistogram;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -45,11 +52,12 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.rocksdb.AbstractNativeReference;
 import org.rocksdb.BackupEngine;
 import org.rocksdb.BackupEngineOptions;
-import org.rocksdb.BlockBasedTableConfig;
-import org.rocksdb.BloomFilter;
-import org.rocksdb.CompressionType;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
 import org.rocksdb.Env;
 import org.rocksdb.LRUCache;
 import org.rocksdb.Options;
@@ -58,6 +66,10 @@ import org.rocksdb.RestoreOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 
 @Slf4j
 @Setter
@@ -81,6 +93,27 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
     private ReadOptions readOpts;
     private boolean alive;
     private int prefixSeekLength;
+    /**
+     * default column family of an own instance, or a column family of the shared instance
+     */
+    private ColumnFamilyHandle columnFamily;
+    private RocksdbColumnFamilies columnFamilies;
+    /**
+     * rocksdb tickers, null unless node.store.statistics is on, shared by all column families of one instance
+     */
+    private Statistics statistics;
+    /**
+     * block cache, rate limiter and filter of an own instance, they outlive its options and are closed with the db
+     */
+    private final List<AbstractNativeReference> natives = new ArrayList<>();
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+    /**
+     * PREFIX_SCAN times the seek and the iteration only, not the caller's callback
+     */
+    public enum Operation {
+        GET, PUT, DELETE, WRITE_BATCH, PREFIX_SCAN
+    }
 
     public RocksdbKVSource(String name) {
         this.name = name;
@@ -93,6 +126,14 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
         log.debug("New RocksdbKVSource: " + name);
     }
 
+    /**
+     * @param columnFamilies shared instance hosting this db as a column family
+     */
+    public RocksdbKVSource(String name, int prefixSeekLength, RocksdbColumnFamilies columnFamilies) {
+        this(name, prefixSeekLength);
+        this.columnFamilies = columnFamilies;
+    }
+
     @Override
     public void init() {
         resetDbLock.writeLock().lock();
@@ -107,29 +148,31 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
                 throw new NullPointerException("no name set to the db");
             }
 
-            try (Options options = new Options()) {
-                // most of these options are suggested by
-                // https://github.com/facebook/rocksdb/wiki/Set-Up-Options
-
-                // general options
-                options.setCreateIfMissing(true);
-                options.setCompressionType(CompressionType.LZ4_COMPRESSION);
-                options.setBottommostCompressionType(CompressionType.LZ4_COMPRESSION);
-                options.setLevelCompactionDynamicLevelBytes(true);
-                options.setMaxOpenFiles(config.getNodeSpec().getStoreMaxOpenFiles());
-                options.setIncreaseParallelism(config.getNodeSpec().getStoreMaxThreads());
-
-                // key prefix for state node lookups
-                options.useFixedLengthPrefixExtractor(prefixSeekLength);
-
-                // table options
-                final BlockBasedTableConfig tableCfg;
-                options.setTableFormatConfig(tableCfg = new BlockBasedTableConfig());
-                tableCfg.setBlockSize(16 * 1024);
-                tableCfg.setBlockCache(new LRUCache(32 * 1024 * 1024));
-                tableCfg.setCacheIndexAndFilterBlocks(true);
-                tableCfg.setPinL0FilterAndIndexBlocksInCache(true);
-                tableCfg.setFilterPolicy(new BloomFilter(10, false));
+            if (config.getNodeSpec().isStoreStatistics() && latencies.isEmpty()) {
+                for (Operation operation : Operation.values()) {
+                    latencies.put(operation, new LatencyHistogram());
+                }
+            }
+
+            if (columnFamilies != null) {
+                db = columnFamilies.acquire();
+                columnFamily = columnFamilies.getHandle(name);
+                statistics = columnFamilies.getStatistics();
+                readOpts = new ReadOptions().setPrefixSameAsStart(true).setVerifyChecksums(false);
+                alive = true;
+                log.debug("<~ RocksdbKVSource.init(): " + name);
+                return;
+            }
+
+            if (config.getNodeSpec().isStoreStatistics()) {
+                statistics = new Statistics();
+            }
+            LRUCache blockCache = new LRUCache(config.getNodeSpec().getStoreBlockCacheSize());
+            natives.add(blockCache);
+            try (DBOptions dbOptions = RocksdbOptions.dbOptions(config.getNodeSpec(), statistics, natives);
+                    ColumnFamilyOptions cfOptions = RocksdbOptions.columnFamilyOptions(config.getNodeSpec(), name,
+                            prefixSeekLength, blockCache, natives);
+                    Options options = new Options(dbOptions, cfOptions)) {
 
                 // read options
                 readOpts = new ReadOptions();
@@ -160,8 +203,10 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
                     log.debug("Initializing new or existing database: '{}'", name);
                     try {
                         db = RocksDB.open(options, dbPath.toString());
+                        columnFamily = db.getDefaultColumnFamily();
                     } catch (RocksDBException e) {
                         log.error(e.getMessage(), e);
+                        closeNatives();
                         throw new RuntimeException("Failed to initialize database", e);
                     }
 
@@ -169,6 +214,7 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
 
                 } catch (IOException ioe) {
                     log.error(ioe.getMessage(), ioe);
+                    closeNatives();
                     throw new RuntimeException("Failed to initialize database", ioe);
                 }
 
@@ -206,6 +252,7 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
     @Override
     public void put(byte[] key, byte[] val) {
         resetDbLock.readLock().lock();
+        long start = startTimer();
         try {
             if (log.isTraceEnabled()) {
                 log.trace(
@@ -220,10 +267,10 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
                 if (db == null) {
                     log.error("db is null");
                 } else {
-                    db.put(key, val);
+                    db.put(columnFamily, key, val);
                 }
             } else {
-                db.delete(key);
+                db.delete(columnFamily, key);
             }
             if (log.isTraceEnabled()) {
                 log.trace(
@@ -240,6 +287,7 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
             hintOnTooManyOpenFiles(e);
             throw new RuntimeException(e);
         } finally {
+            record(Operation.PUT, start);
             resetDbLock.readLock().unlock();
         }
     }
@@ -248,11 +296,12 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
     @Override
     public byte[] get(byte[] key) {
         resetDbLock.readLock().lock();
+        long start = startTimer();
         try {
             if (log.isTraceEnabled()) {
                 log.trace("~> RocksdbKVSource.get(): " + name + ", key: " + Hex.encodeHexString(key));
             }
-            byte[] ret = db.get(readOpts, key);
+            byte[] ret = db.get(columnFamily, readOpts, key);
             if (log.isTraceEnabled()) {
                 log.trace(
                         "<~ RocksdbKVSource.get(): "
@@ -268,6 +317,7 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
             hintOnTooManyOpenFiles(e);
             throw new RuntimeException(e);
         } finally {
+            record(Operation.GET, start);
             resetDbLock.readLock().unlock();
         }
     }
@@ -275,11 +325,12 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
     @Override
     public void delete(byte[] key) {
         resetDbLock.readLock().lock();
+        long start = startTimer();
         try {
             if (log.isTraceEnabled()) {
                 log.trace("~> RocksdbKVSource.delete(): " + name + ", key: " + Hex.encodeHexString(key));
             }
-            db.delete(key);
+            db.delete(columnFamily, key);
             if (log.isTraceEnabled()) {
                 log.trace("<~ RocksdbKVSource.delete(): " + name + ", key: " + Hex.encodeHexString(key));
             }
@@ -287,10 +338,86 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
             log.error("Failed to delete from db '{}'", name, e);
             throw new RuntimeException(e);
         } finally {
+            record(Operation.DELETE, start);
             resetDbLock.readLock().unlock();
         }
     }
 
+    @Override
+    public void writeBatch(List<Pair<byte[], byte[]>> rows) {
+        resetDbLock.readLock().lock();
+        long start = startTimer();
+        try (WriteBatch batch = new WriteBatch(); WriteOptions writeOptions = new WriteOptions()) {
+            if (log.isTraceEnabled()) {
+                log.trace("~> RocksdbKVSource.writeBatch(): " + name + ", " + rows.size());
+            }
+            for (Pair<byte[], byte[]> row : rows) {
+                if (row.getValue() != null) {
+                    batch.put(columnFamily, row.getKey(), row.getValue());
+                } else {
+                    batch.delete(columnFamily, row.getKey());
+                }
+            }
+            db.write(writeOptions, batch);
+            if (log.isTraceEnabled()) {
+                log.trace("<~ RocksdbKVSource.writeBatch(): " + name + ", " + rows.size());
+            }
+        } catch (RocksDBException e) {
+            log.error("Failed to write batch into db '{}'", name, e);
+            hintOnTooManyOpenFiles(e);
+            throw new RuntimeException(e);
+        } finally {
+            record(Operation.WRITE_BATCH, start);
+            resetDbLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply the rows of several column families of one shared instance as a single atomic write.
+     *
+     * @param rows rows per source, all sources must be hosted by the same {@link RocksdbColumnFamilies}
+     */
+    public static void writeAtomically(List<Pair<RocksdbKVSource, List<Pair<byte[], byte[]>>>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        RocksdbKVSource first = rows.get(0).getKey();
+        for (Pair<RocksdbKVSource, List<Pair<byte[], byte[]>>> sourceRows : rows) {
+            if (!first.sharesInstanceWith(sourceRows.getKey())) {
+                throw new IllegalArgumentException("Sources are not column families of one db");
+            }
+        }
+        List<RocksdbKVSource> locked = new ArrayList<>();
+        try (WriteBatch batch = new WriteBatch(); WriteOptions writeOptions = new WriteOptions()) {
+            for (Pair<RocksdbKVSource, List<Pair<byte[], byte[]>>> sourceRows : rows) {
+                RocksdbKVSource source = sourceRows.getKey();
+                source.resetDbLock.readLock().lock();
+                locked.add(source);
+                for (Pair<byte[], byte[]> row : sourceRows.getValue()) {
+                    if (row.getValue() != null) {
+                        batch.put(source.columnFamily, row.getKey(), row.getValue());
+                    } else {
+                        batch.delete(source.columnFamily, row.getKey());
+                    }
+                }
+            }
+            first.db.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            log.error("Failed to write batch into db '{}'", RocksdbColumnFamilies.DB_NAME, e);
+            first.hintOnTooManyOpenFiles(e);
+            throw new RuntimeException(e);
+        } finally {
+            locked.forEach(source -> source.resetDbLock.readLock().unlock());
+        }
+    }
+
+    /**
+     * @return true if both sources are column families of the same shared instance
+     */
+    public boolean sharesInstanceWith(RocksdbKVSource other) {
+        return columnFamilies != null && columnFamilies == other.columnFamilies;
+    }
+
     @Override
     public Set<byte[]> keys() throws RuntimeException {
         resetDbLock.readLock().lock();
@@ -298,7 +425,7 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
             if (log.isTraceEnabled()) {
                 log.trace("~> RocksdbKVSource.keys(): " + name);
             }
-            try (RocksIterator iterator = db.newIterator()) {
+            try (RocksIterator iterator = db.newIterator(columnFamily)) {
                 Set<byte[]> result = new HashSet<>();
                 for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
                     result.add(iterator.key());
@@ -349,23 +476,53 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
     }
 
     @Override
-    public void fetchPrefix(byte[] key, Function<Pair<byte[], byte[]>, Boolean> func) {
+    public void fetchPrefix(byte[] prefix, byte[] from, boolean reverse, Function<Pair<byte[], byte[]>, Boolean> func) {
         resetDbLock.readLock().lock();
-        try (RocksIterator it = db.newIterator(readOpts)) {
-            for (it.seek(key); it.isValid(); it.next()) {
-                if (BytesUtils.keyStartsWith(it.key(), key)) {
-                    if (func.apply(Pair.of(it.key(), it.value()))) {
-                        return;
-                    }
+        long start = startTimer();
+        // time spent in func, left out of the recorded latency
+        long callbacks = 0;
+        // a reverse seek may land on the next prefix first, and a prefix shorter than the extractor's spans several
+        // extractor prefixes, so neither can be bound to the prefix of its seek key
+        boolean totalOrder = reverse || prefix.length < prefixSeekLength;
+        try (ReadOptions opts = totalOrder ? new ReadOptions().setTotalOrderSeek(true).setVerifyChecksums(false) : null;
+                RocksIterator it = db.newIterator(columnFamily, totalOrder ? opts : readOpts)) {
+            if (!reverse) {
+                it.seek(from != null ? from : prefix);
+            } else if (from != null) {
+                it.seekForPrev(from);
+            } else {
+                byte[] next = BytesUtils.nextPrefix(prefix);
+                if (next == null) {
+                    it.seekToLast();
                 } else {
+                    it.seekForPrev(next);
+                    if (it.isValid() && Arrays.equals(it.key(), next)) {
+                        it.prev();
+                    }
+                }
+            }
+            while (it.isValid() && BytesUtils.keyStartsWith(it.key(), prefix)) {
+                Pair<byte[], byte[]> row = Pair.of(it.key(), it.value());
+                long callback = startTimer();
+                boolean stop = func.apply(row);
+                if (callback != 0) {
+                    callbacks += System.nanoTime() - callback;
+                }
+                if (stop) {
                     return;
                 }
+                if (reverse) {
+                    it.prev();
+                } else {
+                    it.next();
+                }
             }
         } catch (Exception e) {
             log.error("Failed to seek by prefix in db '{}'", name, e);
             hintOnTooManyOpenFiles(e);
             throw new RuntimeException(e);
         } finally {
+            record(Operation.PREFIX_SCAN, start == 0 ? 0 : start + callbacks);
             resetDbLock.readLock().unlock();
         }
     }
@@ -379,7 +536,16 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
             }
 
             log.debug("Close db: {}", name);
-            db.close();
+            if (columnFamilies != null) {
+                columnFamilies.release();
+            } else {
+                db.close();
+                closeNatives();
+                if (statistics != null) {
+                    statistics.close();
+                }
+            }
+            statistics = null;
             readOpts.close();
 
             alive = false;
@@ -393,6 +559,19 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
 
     @Override
     public void reset() {
+        if (columnFamilies != null) {
+            resetDbLock.writeLock().lock();
+            try {
+                if (isAlive()) {
+                    columnFamily = columnFamilies.recreate(name);
+                    return;
+                }
+            } finally {
+                resetDbLock.writeLock().unlock();
+            }
+            init();
+            return;
+        }
         close();
         try {
             FileUtils.deleteDirectory(new File(getPath().toString()));
@@ -402,6 +581,50 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
         init();
     }
 
+    /**
+     * Latency per operation plus cache, compaction, stall and memtable figures, empty when statistics are off.
+     * Tickers are counted per rocksdb instance, so column families of a shared instance report the same ones.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        resetDbLock.readLock().lock();
+        try {
+            if (!isAlive() || statistics == null) {
+                return metrics;
+            }
+            long hit = statistics.getTickerCount(TickerType.BLOCK_CACHE_HIT);
+            long miss = statistics.getTickerCount(TickerType.BLOCK_CACHE_MISS);
+            metrics.put("blockCacheHitRatio", hit + miss == 0 ? 0 : Math.round(hit * 10000.0 / (hit + miss)) / 10000.0);
+            metrics.put("stallMicros", statistics.getTickerCount(TickerType.STALL_MICROS));
+            metrics.put("compactionPendingBytes",
+                    db.getLongProperty(columnFamily, "rocksdb.estimate-pending-compaction-bytes"));
+            metrics.put("memtableBytes", db.getLongProperty(columnFamily, "rocksdb.cur-size-all-mem-tables"));
+            for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+                metrics.put(entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue().toMap());
+            }
+        } catch (RocksDBException e) {
+            log.error("Failed to read properties of db '{}'", name, e);
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+        return metrics;
+    }
+
+    private long startTimer() {
+        return latencies.isEmpty() ? 0 : System.nanoTime();
+    }
+
+    private void record(Operation operation, long start) {
+        if (start != 0) {
+            latencies.get(operation).record(System.nanoTime() - start);
+        }
+    }
+
+    private void closeNatives() {
+        natives.forEach(AbstractNativeReference::close);
+        natives.clear();
+    }
+
     private Path getPath() {
         return Paths.get(config.getNodeSpec().getStoreDir(), name);
     }
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db.rocksdb;
+
+import io.xdag.config.spec.NodeSpec;
+import io.xdag.db.DatabaseName;
+import java.util.List;
+import java.util.Locale;
+import org.rocksdb.AbstractNativeReference;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.IndexType;
+import org.rocksdb.RateLimiter;
+import org.rocksdb.Statistics;
+
+/**
+ * Builds RocksDB options from the node.store.* settings, shared by standalone dbs and column families.
+ * <p>
+ * Closing the options doesn't free the rate limiter and filter they point to, those are handed to the caller in
+ * a list to be closed once the db is closed.
+ */
+public final class RocksdbOptions {
+
+    /**
+     * raw block data is read a whole block at a time, it gets bigger table blocks than the index dbs
+     */
+    private static final int RAW_BLOCK_SIZE_FACTOR = 4;
+
+    private RocksdbOptions() {
+    }
+
+    /**
+     * @param statistics ticker collector owned by the caller, null when statistics are off
+     * @param natives collects the native objects created for the options, the caller closes them
+     */
+    // most of these options are suggested by
+    // https://github.com/facebook/rocksdb/wiki/Set-Up-Options
+    public static DBOptions dbOptions(NodeSpec spec, Statistics statistics, List<AbstractNativeReference> natives) {
+        DBOptions options = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setMaxOpenFiles(spec.getStoreMaxOpenFiles())
+                .setIncreaseParallelism(spec.getStoreMaxThreads())
+                .setUseDirectIoForFlushAndCompaction(spec.isStoreDirectIoForCompaction());
+        if (spec.getStoreRateLimitBytesPerSec() > 0) {
+            RateLimiter rateLimiter = new RateLimiter(spec.getStoreRateLimitBytesPerSec());
+            natives.add(rateLimiter);
+            options.setRateLimiter(rateLimiter);
+        }
+        if (statistics != null) {
+            options.setStatistics(statistics);
+        }
+        return options;
+    }
+
+    /**
+     * @param name db or column family name, selects the per db tuning
+     * @param prefixSeekLength fixed key prefix length for prefix seeks, 0 for none
+     * @param blockCache block cache of this db, may be shared with other dbs
+     * @param natives collects the native objects created for the options, the caller closes them
+     */
+    public static ColumnFamilyOptions columnFamilyOptions(NodeSpec spec, String name, int prefixSeekLength,
+            Cache blockCache, List<AbstractNativeReference> natives) {
+        ColumnFamilyOptions options = new ColumnFamilyOptions();
+        options.setCompressionType(compressionType(spec.getStoreCompression()));
+        options.setBottommostCompressionType(compressionType(spec.getStoreBottommostCompression()));
+        CompactionStyle compactionStyle = CompactionStyle.valueOf(spec.getStoreCompactionStyle().toUpperCase(Locale.ROOT));
+        options.setCompactionStyle(compactionStyle);
+        options.setLevelCompactionDynamicLevelBytes(compactionStyle == CompactionStyle.LEVEL);
+        if (spec.getStoreWriteBufferSize() > 0) {
+            options.setWriteBufferSize(spec.getStoreWriteBufferSize());
+        }
+        if (spec.getStoreMaxWriteBufferNumber() > 0) {
+            options.setMaxWriteBufferNumber(spec.getStoreMaxWriteBufferNumber());
+        }
+
+        // key prefix for state node lookups
+        options.useFixedLengthPrefixExtractor(prefixSeekLength);
+
+        // table options
+        BlockBasedTableConfig tableCfg = new BlockBasedTableConfig();
+        boolean rawBlocks = DatabaseName.BLOCK.toString().equals(name);
+        tableCfg.setBlockSize(rawBlocks ? (long) spec.getStoreBlockSize() * RAW_BLOCK_SIZE_FACTOR : spec.getStoreBlockSize());
+        tableCfg.setBlockCache(blockCache);
+        tableCfg.setCacheIndexAndFilterBlocks(true);
+        tableCfg.setPinL0FilterAndIndexBlocksInCache(true);
+        // time keys are only read by prefix scans, a whole key bloom filter never helps there
+        if (spec.getStoreBloomBitsPerKey() > 0 && !DatabaseName.TIME.toString().equals(name)) {
+            BloomFilter filter = new BloomFilter(spec.getStoreBloomBitsPerKey(), false);
+            natives.add(filter);
+            tableCfg.setFilterPolicy(filter);
+        }
+        if (spec.isStorePartitionedIndexFilters()) {
+            tableCfg.setIndexType(IndexType.kTwoLevelIndexSearch);
+            tableCfg.setPartitionFilters(true);
+            tableCfg.setMetadataBlockSize(4096);
+            tableCfg.setCacheIndexAndFilterBlocksWithHighPriority(true);
+            tableCfg.setPinTopLevelIndexAndFilter(true);
+        }
+        options.setTableFormatConfig(tableCfg);
+        return options;
+    }
+
+    /**
+     * @param name none, snappy, zlib, lz4, lz4hc, zstd ...
+     */
+    static CompressionType compressionType(String name) {
+        String type = name.toUpperCase(Locale.ROOT);
+        if ("NONE".equals(type)) {
+            return CompressionType.NO_COMPRESSION;
+        }
+        return CompressionType.valueOf(type + "_COMPRESSION");
+    }
+}
@@ -51,6 +51,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.bouncycastle.util.Arrays;
@@ -120,9 +121,16 @@ public class RandomX {
                 hashlow = blockchain.getBlockByHeight(block.getInfo().getHeight() - randomXForkLag).getInfo()
                         .getHashlow();
                 if (nextMemory.seed == null || !equalBytes(nextMemory.seed, hashlow)) {
-                    nextMemory.seed = Arrays.reverse(hashlow);
-                    log.debug("Next Memory Seed:{}", Hex.toHexString(hashlow));
-                    randomXPoolUpdateSeed(nextMemIndex);
+                    // seed与vm在同一把锁内更新, 计算hash时读到的seed总是vm所用的seed
+                    ReadWriteLock readWriteLock = globalMemoryLock[(int) (nextMemIndex) & 1];
+                    readWriteLock.writeLock().lock();
+                    try {
+                        nextMemory.seed = Arrays.reverse(hashlow);
+                        log.debug("Next Memory Seed:{}", Hex.toHexString(hashlow));
+                        randomXPoolUpdateSeed(nextMemIndex);
+                    } finally {
+                        readWriteLock.writeLock().unlock();
+                    }
                 }
                 randomXHashEpochIndex = nextMemIndex;
                 nextMemory.isSwitched = 0;
@@ -205,41 +213,69 @@ public class RandomX {
 
 
     public byte[] randomXBlockHash(byte[] data, int dataSize, long blockTime) {
-        byte[] hash;
-        ReadWriteLock readWriteLock;
-        RandomXMemory memory;
-        // no seed
-        if (randomXHashEpochIndex == 0) {
+        Pair<byte[], byte[]> seedAndHash = randomXBlockSeedAndHash(data, dataSize, blockTime);
+        return seedAndHash == null ? null : seedAndHash.getRight();
+    }
+
+    /**
+     * 计算区块的randomx hash, 同时返回计算所用的seed, 二者在同一把锁内读取, 没有seed时返回null
+     *
+     * @return Pair<seed, hash>
+     */
+    public Pair<byte[], byte[]> randomXBlockSeedAndHash(byte[] data, int dataSize, long blockTime) {
+        int index = blockMemoryIndex(blockTime);
+        if (index < 0) {
             return null;
-        } else if (randomXHashEpochIndex == 1) { // first seed
-            memory = globalMemory[(int) (randomXHashEpochIndex) & 1];
-            if (blockTime < memory.switchTime) {
-                // block time less then switchtime
-                log.debug("Block time {} less then switchtime {}", Long.toHexString(blockTime),
-                        Long.toHexString(memory.switchTime));
-                return null;
-            } else {
-                readWriteLock = globalMemoryLock[(int) (randomXHashEpochIndex) & 1];
-            }
-        } else {
-            memory = globalMemory[(int) (randomXHashEpochIndex) & 1];
-            if (blockTime < memory.switchTime) {
-                readWriteLock = globalMemoryLock[(int) (randomXHashEpochIndex - 1) & 1];
-                memory = globalMemory[(int) (randomXHashEpochIndex - 1) & 1];
-            } else {
-                readWriteLock = globalMemoryLock[(int) (randomXHashEpochIndex) & 1];
-            }
         }
+        RandomXMemory memory = globalMemory[index];
+        ReadWriteLock readWriteLock = globalMemoryLock[index];
 
         readWriteLock.writeLock().lock();
         try {
+            if (memory.seed == null) {
+                return null;
+            }
             log.debug("Use seed {}", Hex.toHexString(Arrays.reverse(memory.seed)));
-            hash = calculateHash(memory.blockVm, data, dataSize);
+            return Pair.of(memory.seed.clone(), calculateHash(memory.blockVm, data, dataSize));
         } finally {
             readWriteLock.writeLock().unlock();
         }
+    }
 
-        return hash;
+    /**
+     * 获取randomXBlockHash计算该时间区块所用的seed，没有seed时返回null
+     */
+    public byte[] randomXBlockSeed(long blockTime) {
+        int index = blockMemoryIndex(blockTime);
+        if (index < 0) {
+            return null;
+        }
+        ReadWriteLock readWriteLock = globalMemoryLock[index];
+        readWriteLock.readLock().lock();
+        try {
+            byte[] seed = globalMemory[index].seed;
+            return seed == null ? null : seed.clone();
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    private int blockMemoryIndex(long blockTime) {
+        // no seed
+        if (randomXHashEpochIndex == 0) {
+            return -1;
+        }
+        RandomXMemory memory = globalMemory[(int) (randomXHashEpochIndex) & 1];
+        if (blockTime >= memory.switchTime) {
+            return (int) (randomXHashEpochIndex) & 1;
+        }
+        if (randomXHashEpochIndex == 1) { // first seed
+            // block time less then switchtime
+            log.debug("Block time {} less then switchtime {}", Long.toHexString(blockTime),
+                    Long.toHexString(memory.switchTime));
+            return -1;
+        }
+        return (int) (randomXHashEpochIndex - 1) & 1;
     }
 
 
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.net.handler;
+
+import static io.xdag.config.Constants.BLOCKS_REPLY_BUDGET;
+
+import io.xdag.db.BlockStore;
+import io.xdag.net.message.Message;
+import io.xdag.net.message.MessageQueue;
+import io.xdag.net.message.impl.NewBlockMessage;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 应答一个节点的区块请求: 直接从时间索引流式读取原始区块发送, 不解析区块.
+ * 发送队列积压超过BLOCKS_REPLY_BUDGET或连接不可写时暂停, 稍后从上次的位置继续.
+ * 同一节点的多个请求按到达顺序依次应答.
+ */
+@Slf4j
+public class BlocksResponder {
+
+    /**
+     * 暂停后再次尝试发送的间隔(毫秒)
+     */
+    private static final long RESUME_DELAY = 10;
+
+    private final BlockStore blockStore;
+    private final MessageQueue msgQueue;
+    private final int ttl;
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private Request current;
+
+    public BlocksResponder(BlockStore blockStore, MessageQueue msgQueue, int ttl) {
+        this.blockStore = blockStore;
+        this.msgQueue = msgQueue;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param reply 区块发送完后的应答消息, 发送时才创建
+     */
+    public void submit(long startTime, long endTime, Supplier<Message> reply) {
+        requests.add(new Request(startTime, endTime, reply));
+        schedule(0);
+    }
+
+    private void schedule(long delay) {
+        if (scheduled.compareAndSet(false, true)) {
+            MessageQueue.timer.schedule(() -> {
+                try {
+                    pump();
+                } catch (Throwable t) {
+                    log.error("Unhandled exception", t);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void pump() {
+        scheduled.set(false);
+        if (!msgQueue.isRunning()) {
+            requests.clear();
+            current = null;
+            return;
+        }
+        while (true) {
+            if (current == null) {
+                current = requests.poll();
+                if (current == null) {
+                    return;
+                }
+            }
+            if (!canSend()) {
+                schedule(RESUME_DELAY);
+                return;
+            }
+            Request req = current;
+            boolean[] paused = {false};
+            blockStore.fetchRawBlocksByTime(req.startTime, req.endTime, req.lastKey, (key, raw) -> {
+                msgQueue.sendMessage(NewBlockMessage.fromRaw(raw, ttl));
+                req.lastKey = key;
+                if (!canSend()) {
+                    paused[0] = true;
+                    return Boolean.TRUE;
+                }
+                return Boolean.FALSE;
+            });
+            if (paused[0]) {
+                schedule(RESUME_DELAY);
+                return;
+            }
+            msgQueue.sendMessage(req.reply.get());
+            current = null;
+        }
+    }
+
+    private boolean canSend() {
+        return msgQueue.size() < BLOCKS_REPLY_BUDGET && msgQueue.isWritable();
+    }
+
+    private static class Request {
+        private final long startTime;
+        private final long endTime;
+        private final Supplier<Message> reply;
+        /**
+         * 已发送的最后一个时间索引key
+         */
+        private byte[] lastKey;
+
+        Request(long startTime, long endTime, Supplier<Message> reply) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.reply = reply;
+        }
+    }
+}
@@ -41,7 +41,8 @@ import io.xdag.net.message.impl.BlocksRequestMessage;
 import io.xdag.net.message.impl.NewBlockMessage;
 import io.xdag.net.message.impl.SumReplyMessage;
 import io.xdag.net.message.impl.SumRequestMessage;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
@@ -55,6 +56,12 @@ import org.apache.tuweni.bytes.MutableBytes32;
 @Slf4j
 public class Xdag03 extends XdagHandler {
 
+    private BlocksResponder blocksResponder;
+    /**
+     * 导入管道已满时收到的区块, 只在event loop上访问
+     */
+    private final Queue<BlockWrapper> pendingBlocks = new ArrayDeque<>();
+
     public Xdag03(Kernel kernel, Channel channel) {
         this.kernel = kernel;
         this.channel = channel;
@@ -67,7 +74,7 @@ public class Xdag03 extends XdagHandler {
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
         switch (msg.getCommand()) {
-            case NEW_BLOCK -> processNewBlock((NewBlockMessage) msg);
+            case NEW_BLOCK -> processNewBlock(ctx, (NewBlockMessage) msg);
             case BLOCK_REQUEST -> processBlockRequest((BlockRequestMessage) msg);
             case BLOCKS_REQUEST -> processBlocksRequest((BlocksRequestMessage) msg);
             case BLOCKS_REPLY -> processBlocksReply((BlocksReplyMessage) msg);
@@ -84,6 +91,12 @@ public class Xdag03 extends XdagHandler {
         msgQueue.activate(ctx);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        msgQueue.onWritabilityChanged();
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         log.debug("channelInactive:[{}] ", ctx.toString());
@@ -113,15 +126,40 @@ public class Xdag03 extends XdagHandler {
     /**
      * ********************** Message Processing * ***********************
      */
-    protected void processNewBlock(NewBlockMessage msg) {
+    protected void processNewBlock(ChannelHandlerContext ctx, NewBlockMessage msg) {
         Block block = msg.getBlock();
         log.debug("processNewBlock:{}", block.getHashLow().toHexString());
         BlockWrapper bw = new BlockWrapper(block, msg.getTtl() - 1, channel.getNode());
-        syncMgr.validateAndAddNewBlock(bw);
+        if (!pendingBlocks.isEmpty() || !syncMgr.trySubmitNewBlock(bw)) {
+            // 导入管道已满: 暂停读取该节点, 有空位后再提交
+            pendingBlocks.add(bw);
+            if (pendingBlocks.size() == 1) {
+                ctx.channel().config().setAutoRead(false);
+                waitPipelineSlot(ctx);
+            }
+        }
+    }
+
+    private void waitPipelineSlot(ChannelHandlerContext ctx) {
+        syncMgr.onPipelineSlot(() -> ctx.executor().execute(() -> submitPendingBlocks(ctx)));
+    }
+
+    /**
+     * 在event loop上执行
+     */
+    private void submitPendingBlocks(ChannelHandlerContext ctx) {
+        while (!pendingBlocks.isEmpty()) {
+            if (!syncMgr.trySubmitNewBlock(pendingBlocks.peek())) {
+                waitPipelineSlot(ctx);
+                return;
+            }
+            pendingBlocks.poll();
+        }
+        ctx.channel().config().setAutoRead(true);
     }
 
     /**
-     * 区块请求响应一个区块 并开启一个线程不断发送一段时间内的区块 *
+     * 区块请求: 流式发送一段时间内的区块, 最后发送BlocksReply *
      */
     protected void processBlocksRequest(BlocksRequestMessage msg) {
 //        log.debug("processBlocksRequest:" + msg);
@@ -131,17 +169,11 @@ public class Xdag03 extends XdagHandler {
         long endTime = msg.getEndtime();
         long random = msg.getRandom();
 
-        // TODO: paulochen 处理多区块请求
-//        // 如果大于快照点的话 我可以发送
-//        if (startTime > 1658318225407L) {
-//            // TODO: 如果请求时间间隔过大，启动新线程发送，目的是避免攻击
-        List<Block> blocks = blockchain.getBlocksByTime(startTime, endTime);
-        for (Block block : blocks) {
-            sendNewBlock(block, 1);
+        if (blocksResponder == null) {
+            blocksResponder = new BlocksResponder(kernel.getBlockStore(), msgQueue, 1);
         }
-        sendMessage(new BlocksReplyMessage(startTime, endTime, random, kernel.getBlockchain().getXdagStats(),
-                netDBManager.getNetDB()));
-//        }
+        blocksResponder.submit(startTime, endTime, () -> new BlocksReplyMessage(startTime, endTime, random,
+                kernel.getBlockchain().getXdagStats(), netDBManager.getNetDB()));
     }
 
     protected void processBlocksReply(BlocksReplyMessage msg) {
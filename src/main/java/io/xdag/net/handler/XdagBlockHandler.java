@@ -24,8 +24,6 @@
 
 package io.xdag.net.handler;
 
-import static io.xdag.utils.BasicUtils.crc32Verify;
-
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
@@ -39,7 +37,9 @@ import io.xdag.net.message.MessageFactory;
 import io.xdag.net.message.impl.NewBlockMessage;
 import io.xdag.utils.BytesUtils;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.CRC32;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
@@ -67,78 +67,98 @@ public class XdagBlockHandler extends ByteToMessageCodec<XdagBlock> {
     @Override
     protected void encode(
             ChannelHandlerContext channelHandlerContext, XdagBlock xdagblock, ByteBuf out) {
-        byte[] unCryptData = xdagblock.getData().toArray();
-        byte[] encryptData;
-        // libp2p没有三次握手
-        if (channel.getClass().equals(XdagChannel.class)) {
-            encryptData = Native.dfslib_encrypt_byte_sector(unCryptData, unCryptData.length,
-                    channel.getNode().getStat().Outbound.get() - 3 + 1);
+        long sectorNo = sectorNo(channel.getNode().getStat().Outbound.get());
+        if (out.hasMemoryAddress() && Native.isDirectCryptSupported()) {
+            // 写入direct buffer后原地加密
+            int index = out.writerIndex();
+            out.writeBytes(xdagblock.getData().toArrayUnsafe(), 0, XdagBlock.XDAG_BLOCK_SIZE);
+            Native.dfslib_encrypt_sectors(out.memoryAddress() + index, 1, sectorNo);
         } else {
-            encryptData = Native.dfslib_encrypt_byte_sector(unCryptData, unCryptData.length,
-                    channel.getNode().getStat().Outbound.get() + 1);
+            byte[] unCryptData = xdagblock.getData().toArray();
+            out.writeBytes(Native.dfslib_encrypt_byte_sector(unCryptData, unCryptData.length, sectorNo));
         }
-        out.writeBytes(encryptData);
         channel.getNode().getStat().Outbound.add();
     }
 
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) {
-        if (in.readableBytes() >= XdagBlock.XDAG_BLOCK_SIZE) {
-            log.trace("Decoding packet (" + in.readableBytes() + " bytes)");
-            byte[] encryptData = new byte[512];
-            in.readBytes(encryptData);
-            byte[] unCryptData;
-            if (channel.getClass().equals(XdagChannel.class)) {
-                unCryptData = Native.dfslib_uncrypt_byte_sector(encryptData, encryptData.length,
-                        channel.getNode().getStat().Inbound.get() - 3 + 1);
+        int n = in.readableBytes() / XdagBlock.XDAG_BLOCK_SIZE;
+        if (n == 0) {
+            log.debug("length less than " + XdagBlock.XDAG_BLOCK_SIZE + " bytes");
+            return;
+        }
+        log.trace("Decoding packet (" + in.readableBytes() + " bytes)");
+        long sectorNo = sectorNo(channel.getNode().getStat().Inbound.get());
+        boolean direct = in.hasMemoryAddress() && Native.isDirectCryptSupported();
+        for (int i = 0; i < n; i++) {
+            // sector读取时才原地解密, 某一帧解码失败时后面的sector仍是密文, 下次decode不会重复解密
+            if (direct) {
+                Native.dfslib_uncrypt_sectors(in.memoryAddress() + in.readerIndex(), 1, sectorNo + i);
             }
-            // libp2p没有三次握手
-            else {
-                unCryptData = Native.dfslib_uncrypt_byte_sector(encryptData, encryptData.length,
-                        channel.getNode().getStat().Inbound.get() + 1);
+            byte[] unCryptData = new byte[XdagBlock.XDAG_BLOCK_SIZE];
+            in.readBytes(unCryptData);
+            if (!direct) {
+                unCryptData = Native.dfslib_uncrypt_byte_sector(unCryptData, unCryptData.length, sectorNo + i);
             }
             channel.getNode().getStat().Inbound.add();
+            decodeFrame(unCryptData, out);
+        }
+    }
 
-            // TODO:process xdagblock transport header
-            int ttl = (int) ((BytesUtils.bytesToLong(unCryptData, 0, true) >> 8) & 0xff);
-            if (isDataIllegal(unCryptData.clone())) {
-                log.debug("Receive error block!");
-                return;
-            }
+    /**
+     * 第count个sector的加解密序号, libp2p没有三次握手
+     */
+    private long sectorNo(long count) {
+        if (channel.getClass().equals(XdagChannel.class)) {
+            return count - 3 + 1;
+        }
+        return count + 1;
+    }
 
-            System.arraycopy(BytesUtils.longToBytes(0, true), 0, unCryptData, 0, 8);
+    private void decodeFrame(byte[] unCryptData, List<Object> out) {
+        // TODO:process xdagblock transport header
+        int ttl = (int) ((BytesUtils.bytesToLong(unCryptData, 0, true) >> 8) & 0xff);
+        if (isDataIllegal(unCryptData)) {
+            log.debug("Receive error block!");
+            return;
+        }
 
-            XdagBlock xdagBlock = new XdagBlock(unCryptData);
-            byte first_field_type = getMsgCode(xdagBlock, 0);
-            Message msg = null;
-            // 普通区块
-            XdagField.FieldType netType = channel.getKernel().getConfig().getXdagFieldHeader();
-            if (netType.asByte() == first_field_type) {
-                msg = new NewBlockMessage(xdagBlock, ttl);
-            }
-            // 消息区块
-            else if (XdagField.FieldType.XDAG_FIELD_NONCE.asByte() == first_field_type) {
-                msg = messageFactory.create(getMsgCode(xdagBlock, 1), xdagBlock.getData());
-            }
-            if (msg != null) {
-                out.add(msg);
-            } else {
-                log.debug("receive unknown block first_field_type :" + first_field_type);
-            }
+        Arrays.fill(unCryptData, 0, 8, (byte) 0);
 
+        XdagBlock xdagBlock = new XdagBlock(unCryptData);
+        byte first_field_type = getMsgCode(xdagBlock, 0);
+        Message msg = null;
+        // 普通区块
+        XdagField.FieldType netType = channel.getKernel().getConfig().getXdagFieldHeader();
+        if (netType.asByte() == first_field_type) {
+            msg = new NewBlockMessage(xdagBlock, ttl);
+        }
+        // 消息区块
+        else if (XdagField.FieldType.XDAG_FIELD_NONCE.asByte() == first_field_type) {
+            msg = messageFactory.create(getMsgCode(xdagBlock, 1), xdagBlock.getData());
+        }
+        if (msg != null) {
+            out.add(msg);
         } else {
-            log.debug("length less than " + XdagBlock.XDAG_BLOCK_SIZE + " bytes");
+            log.debug("receive unknown block first_field_type :" + first_field_type);
         }
     }
 
-    public boolean isDataIllegal(byte[] uncryptData) {
+    /**
+     * 校验传输头的长度和crc. 直接在解密后的数据上计算, 不复制; crc按crc字段为0计算, 校验后该字段被清零
+     */
+    public static boolean isDataIllegal(byte[] uncryptData) {
         long transportHeader = BytesUtils.bytesToLong(uncryptData, 0, true);
         long dataLength = (transportHeader >> 16 & 0xffff);
-        int crc = BytesUtils.bytesToInt(uncryptData, 4, true);
-        // clean transport header
-        System.arraycopy(BytesUtils.longToBytes(0, true), 0, uncryptData, 4, 4);
-        return (dataLength != 512 || !crc32Verify(uncryptData, crc));
-
+        if (dataLength != XdagBlock.XDAG_BLOCK_SIZE) {
+            return true;
+        }
+        int crc = (int) (transportHeader >>> 32);
+        // clean transport header crc
+        Arrays.fill(uncryptData, 4, 8, (byte) 0);
+        CRC32 crc32 = new CRC32();
+        crc32.update(uncryptData, 0, XdagBlock.XDAG_BLOCK_SIZE);
+        return (int) crc32.getValue() != crc;
     }
 
 }
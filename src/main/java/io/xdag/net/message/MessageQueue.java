@@ -24,21 +24,28 @@
 
 package io.xdag.net.message;
 
-import static io.xdag.config.Constants.SEND_PERIOD;
+import static io.xdag.config.Constants.MSG_QUEUE_BATCH_BYTES;
+import static io.xdag.config.Constants.MSG_QUEUE_HIGH_WATER;
+import static io.xdag.config.Constants.MSG_QUEUE_LOW_WATER;
 
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.xdag.core.XdagBlock;
 import io.xdag.net.Channel;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
+/**
+ * 消息发送队列. 入队后在channel的event loop上调度一次flush, 每次按字节数批量写出.
+ * 请求消息(需要应答)优先于响应消息; 积压超过高水位后isWritable()为false, 生产者应暂停, 降到低水位以下恢复.
+ */
 @Slf4j
 public class MessageQueue {
 
@@ -52,9 +59,16 @@ public class MessageQueue {
     private final Queue<Message> requestQueue = new ConcurrentLinkedQueue<>();
     private final Queue<Message> respondQueue = new ConcurrentLinkedQueue<>();
     private final Channel channel;
-    boolean isRunning = false;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicInteger queuedMessages = new AtomicInteger(0);
+    private final AtomicLong queuedBytes = new AtomicLong(0);
+    private final AtomicLong sentMessages = new AtomicLong(0);
+    private final AtomicLong sentBytes = new AtomicLong(0);
+    private final AtomicLong flushes = new AtomicLong(0);
+    private volatile int maxQueuedMessages;
+    private volatile boolean overHighWater;
+    volatile boolean isRunning = false;
     private ChannelHandlerContext ctx = null;
-    private ScheduledFuture<?> timerTask;
 
     public MessageQueue(Channel channel) {
         this.channel = channel;
@@ -63,44 +77,7 @@ public class MessageQueue {
     public void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
         isRunning = true;
-        timerTask = timer.scheduleAtFixedRate(
-                () -> {
-                    try {
-                        nudgeQueue();
-                    } catch (Throwable t) {
-                        log.error("Unhandled exception", t);
-                    }
-                },
-                10,
-                // TODO: 发送周期缩短会不会有影响，但能有效加快同步速度
-                SEND_PERIOD,
-                // 2毫秒执行一次
-                TimeUnit.MILLISECONDS);
-    }
-
-    /**
-     * 每2毫秒执行一次
-     */
-    private void nudgeQueue() {
-        int n = Math.min(5, size());
-        if (n == 0) {
-            return;
-        }
-        // write out n messages
-        for (int i = 0; i < n; i++) {
-            // Now send the next message
-            // log.debug("Sent to Wire with the message,msg:"+msg.getCommand());
-            Message respondMsg = respondQueue.poll();
-            Message requestMsg = requestQueue.poll();
-            if (respondMsg != null) {
-                ctx.write(respondMsg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            }
-            if (requestMsg != null) {
-                ctx.write(requestMsg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            }
-
-        }
-        ctx.flush();
+        scheduleFlush();
     }
 
     public void sendMessage(Message msg) {
@@ -114,6 +91,69 @@ public class MessageQueue {
         } else {
             respondQueue.add(msg);
         }
+        int n = queuedMessages.incrementAndGet();
+        if (n > maxQueuedMessages) {
+            maxQueuedMessages = n;
+        }
+        if (queuedBytes.addAndGet(XdagBlock.XDAG_BLOCK_SIZE) > MSG_QUEUE_HIGH_WATER) {
+            overHighWater = true;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * 在event loop上调度一次flush, 已调度则忽略
+     */
+    private void scheduleFlush() {
+        ChannelHandlerContext c = ctx;
+        if (c == null || !isRunning || size() == 0) {
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            c.executor().execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (!isRunning) {
+            return;
+        }
+        long bytes = 0;
+        while (bytes < MSG_QUEUE_BATCH_BYTES && ctx.channel().isWritable()) {
+            Message msg = requestQueue.poll();
+            if (msg == null) {
+                msg = respondQueue.poll();
+            }
+            if (msg == null) {
+                break;
+            }
+            ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+            bytes += XdagBlock.XDAG_BLOCK_SIZE;
+            queuedMessages.decrementAndGet();
+            sentMessages.incrementAndGet();
+        }
+        if (bytes > 0) {
+            ctx.flush();
+            flushes.incrementAndGet();
+            sentBytes.addAndGet(bytes);
+            if (queuedBytes.addAndGet(-bytes) < MSG_QUEUE_LOW_WATER) {
+                overHighWater = false;
+            }
+        }
+        // 批次写满时让出event loop后继续, 不可写时等待channelWritabilityChanged
+        if (ctx.channel().isWritable()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * channel重新可写时继续发送
+     */
+    public void onWritabilityChanged() {
+        if (ctx != null && ctx.channel().isWritable()) {
+            scheduleFlush();
+        }
     }
 
     public void disconnect() {
@@ -122,16 +162,45 @@ public class MessageQueue {
 
     public void close() {
         isRunning = false;
-        if (timerTask != null) {
-            timerTask.cancel(false);
-        }
+        requestQueue.clear();
+        respondQueue.clear();
+        queuedMessages.set(0);
+        queuedBytes.set(0);
+        overHighWater = false;
     }
 
     public boolean isRunning() {
         return isRunning;
     }
 
+    /**
+     * 队列积压未超过高水位且底层连接的发送缓冲未满
+     */
+    public boolean isWritable() {
+        return !overHighWater && ctx != null && ctx.channel().isWritable();
+    }
+
     public int size() {
-        return requestQueue.size() + respondQueue.size();
+        return queuedMessages.get();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public int getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
     }
 }
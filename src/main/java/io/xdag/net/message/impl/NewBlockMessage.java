@@ -67,6 +67,16 @@ public class NewBlockMessage extends Message {
         this.ttl = ttl;
     }
 
+    /**
+     * 处理crc 直接用存储的原始区块数据创建message, 不解析区块. 传输头写在副本上, raw可能是存储层仍持有的数组
+     */
+    public static NewBlockMessage fromRaw(byte[] raw, int ttl) {
+        NewBlockMessage msg = new NewBlockMessage(MutableBytes.wrap(raw).mutableCopy());
+        msg.ttl = ttl;
+        msg.updateTransportHeader();
+        return msg;
+    }
+
     public Block getBlock() {
         parse();
         return block;
@@ -76,12 +86,21 @@ public class NewBlockMessage extends Message {
         if (parsed) {
             return;
         }
+        if (xdagBlock == null) {
+            MutableBytes data = encoded.mutableCopy();
+            data.set(0, Bytes.wrap(new byte[8]));
+            xdagBlock = new XdagBlock(data);
+        }
         block = new Block(xdagBlock);
         parsed = true;
     }
 
     private void encode() {
         this.encoded = this.block.getXdagBlock().getData().mutableCopy();
+        updateTransportHeader();
+    }
+
+    private void updateTransportHeader() {
         long transportheader = ((long) ttl << 8) | DNET_PKT_XDAG | (512 << 16);
 //        System.arraycopy(BytesUtils.longToBytes(transportheader, true), 0, this.encoded, 0, 8);
         this.encoded.set(0, Bytes.wrap(BytesUtils.longToBytes(transportheader, true)));
@@ -90,9 +109,8 @@ public class NewBlockMessage extends Message {
 
     public void updateCrc() {
         CRC32 crc32 = new CRC32();
-        crc32.update(encoded.toArray(), 0, 512);
-//        System.arraycopy(BytesUtils.intToBytes((int) crc32.getValue(), true), 0, encoded, 4, 4);
-        this.encoded.set(4, Bytes.wrap(BytesUtils.intToBytes((int) crc32.getValue(), true)));
+        crc32.update(encoded.toArrayUnsafe(), 0, 512);
+        this.encoded.setInt(4, Integer.reverseBytes((int) crc32.getValue()));
     }
 
     public int getTtl() {
@@ -107,6 +107,8 @@ public interface Web3XdagModule {
 
     Object xdag_netConnectionList() throws Exception;
 
+    Object xdag_storeMetrics() throws Exception;
+
     Object xdag_updatePoolConfig(ConfigDTO args, String passphrase) throws Exception;
 
     Object xdag_getPoolWorkers() throws Exception;
@@ -221,6 +221,11 @@ public class Web3XdagModuleImpl implements Web3XdagModule {
         return netConnDTOList;
     }
 
+    @Override
+    public Object xdag_storeMetrics() throws Exception {
+        return kernel.getDbFactory().getMetrics();
+    }
+
     static class SyncingResult {
 
         public String currentBlock;
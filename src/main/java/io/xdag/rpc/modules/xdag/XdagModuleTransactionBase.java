@@ -150,14 +150,13 @@ public class XdagModuleTransactionBase implements XdagModuleTransaction {
         Map<Address, KeyPair> ourBlocks = Maps.newHashMap();
 
         // our block select
-        kernel.getBlockStore().fetchOurBlocks(pair -> {
-            int index = pair.getKey();
-            Block block = pair.getValue();
+        kernel.getBlockStore().fetchOurBlockAmounts(block -> {
+            int index = block.getIndex();
             if (XdagTime.getCurrentEpoch() < XdagTime.getEpoch(block.getTimestamp()) + 2 * CONFIRMATIONS_COUNT) {
-                System.out.println(BasicUtils.hash2Address(block.getHash()));
+                System.out.println(BasicUtils.hash2Address(block.getHashlow()));
                 return false;
             }
-            ourBlocks.put(new Address(block.getHashLow(), XDAG_FIELD_IN, remain.get()),
+            ourBlocks.put(new Address(block.getHashlow(), XDAG_FIELD_IN, remain.get()),
                     kernel.getWallet().getAccounts().get(index));
             remain.set(0);
             return true;
@@ -27,7 +27,6 @@ package io.xdag.rpc.modules.xdag;
 import com.google.common.collect.Maps;
 import io.xdag.Kernel;
 import io.xdag.core.Address;
-import io.xdag.core.Block;
 import io.xdag.core.BlockWrapper;
 import io.xdag.core.ImportResult;
 import io.xdag.rpc.Web3.CallArguments;
@@ -120,21 +119,20 @@ public class XdagModuleTransactionEnabled extends XdagModuleTransactionBase {
         Map<Address, KeyPair> ourBlocks = Maps.newHashMap();
 
         // our block select
-        kernel.getBlockStore().fetchOurBlocks(pair -> {
-            int index = pair.getKey();
-            Block block = pair.getValue();
+        kernel.getBlockStore().fetchOurBlockAmounts(block -> {
+            int index = block.getIndex();
             if (XdagTime.getCurrentEpoch() < XdagTime.getEpoch(block.getTimestamp()) + 2 * CONFIRMATIONS_COUNT) {
                 return false;
             }
-            if (remain.get() <= block.getInfo().getAmount()) {
-                ourBlocks.put(new Address(block.getHashLow(), XDAG_FIELD_IN, remain.get()),
+            if (remain.get() <= block.getAmount()) {
+                ourBlocks.put(new Address(block.getHashlow(), XDAG_FIELD_IN, remain.get()),
                         kernel.getWallet().getAccounts().get(index));
                 remain.set(0);
                 return true;
             } else {
-                if (block.getInfo().getAmount() > 0) {
-                    remain.set(remain.get() - block.getInfo().getAmount());
-                    ourBlocks.put(new Address(block.getHashLow(), XDAG_FIELD_IN, block.getInfo().getAmount()),
+                if (block.getAmount() > 0) {
+                    remain.set(remain.get() - block.getAmount());
+                    ourBlocks.put(new Address(block.getHashlow(), XDAG_FIELD_IN, block.getAmount()),
                             kernel.getWallet().getAccounts().get(index));
                     return false;
                 }
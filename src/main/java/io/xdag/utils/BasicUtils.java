@@ -146,6 +146,20 @@ public class BasicUtils {
         return bigDecimal.setScale(12, RoundingMode.HALF_UP).doubleValue();
     }
 
+    /**
+     * amounts are unsigned 64 bits, compare them without boxing into UnsignedLong
+     */
+    public static int compareAmount(long a, long b) {
+        return Long.compareUnsigned(a, b);
+    }
+
+    /**
+     * true if the unsigned sum a + b wraps around 2^64
+     */
+    public static boolean amountAddOverflows(long a, long b) {
+        return Long.compareUnsigned(a + b, a) < 0;
+    }
+
     public static boolean crc32Verify(byte[] src, int crc) {
         CRC32 crc32 = new CRC32();
         crc32.update(src, 0, 512);
@@ -231,6 +231,20 @@ public class BytesUtils {
         return true;
     }
 
+    /**
+     * @return the smallest key greater than every key starting with prefix, null when there is none
+     */
+    public static byte[] nextPrefix(byte[] prefix) {
+        byte[] next = prefix.clone();
+        for (int i = next.length - 1; i >= 0; i--) {
+            if (next[i] != (byte) 0xff) {
+                next[i]++;
+                return Arrays.copyOf(next, i + 1);
+            }
+        }
+        return null;
+    }
+
     public static boolean isFullZero(byte[] input) {
         for (byte b : input) {
             if (b != 0) {
@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.consensus;
+
+import static io.xdag.config.Constants.REQUEST_WINDOW_INIT;
+import static io.xdag.config.Constants.REQUEST_WINDOW_MAX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SyncPeerTest {
+
+    @Test
+    public void testWindow() {
+        SyncPeer peer = new SyncPeer(null);
+        for (int i = 0; i < REQUEST_WINDOW_INIT; i++) {
+            assertTrue(peer.isAvailable());
+            peer.onRequest();
+        }
+        assertFalse(peer.isAvailable());
+
+        // 应答后窗口加一
+        peer.onReply(100);
+        assertEquals(REQUEST_WINDOW_INIT + 1, peer.getWindow());
+        assertEquals(REQUEST_WINDOW_INIT - 1, peer.getInFlight());
+        assertEquals(100, peer.getRtt());
+
+        // 超时后窗口减半
+        peer.onTimeout();
+        assertEquals((REQUEST_WINDOW_INIT + 1) / 2, peer.getWindow());
+        assertEquals(1, peer.getTimeouts());
+        assertFalse(peer.isAvailable());
+
+        for (int i = 0; i < 2 * REQUEST_WINDOW_MAX; i++) {
+            peer.onRequest();
+            peer.onReply(100);
+        }
+        assertEquals(REQUEST_WINDOW_MAX, peer.getWindow());
+
+        for (int i = 0; i < 8; i++) {
+            peer.onRequest();
+            peer.onTimeout();
+        }
+        assertEquals(1, peer.getWindow());
+    }
+}
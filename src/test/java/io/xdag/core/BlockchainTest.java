@@ -38,6 +38,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.spy;
@@ -66,6 +67,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.tuweni.bytes.Bytes32;
 import org.hyperledger.besu.crypto.KeyPair;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -157,6 +159,49 @@ public class BlockchainTest {
         assertArrayEquals(addressBlock.getHashLow().toArray(), storedBlock.getHashLow().toArray());
     }
 
+    @Test
+    public void testPreValidate() {
+        KeyPair key = KeyPair.create(secretkey_1, Sign.CURVE, Sign.CURVE_NAME);
+        MockBlockchain blockchain = new MockBlockchain(kernel);
+        Block addressBlock = new Block(new XdagBlock(
+                generateAddressBlock(config, key, new Date().getTime()).getXdagBlock().getData().toArray()));
+        assertNull(blockchain.preValidate(addressBlock));
+
+        // the copy imported under the lock reuses the verified keys
+        Block copy = new Block(new XdagBlock(addressBlock.getXdagBlock().getData().toArray()));
+        copy.copyVerifiedKeys(addressBlock);
+        assertSame(addressBlock.verifiedKeys(), copy.verifiedKeys());
+        assertSame(IMPORTED_BEST, blockchain.tryToConnect(copy));
+
+        Block oldBlock = generateAddressBlock(config, key, 1000L);
+        Pair<ImportResult, String> error = blockchain.preValidate(oldBlock);
+        assertSame(ImportResult.INVALID_BLOCK, error.getLeft());
+        assertEquals("Block's time is illegal", error.getRight());
+    }
+
+    @Test
+    public void testLazyParse() {
+        KeyPair key = KeyPair.create(secretkey_1, Sign.CURVE, Sign.CURVE_NAME);
+        Address from = new Address(Bytes32.random().mutableCopy(), XDAG_FIELD_IN);
+        Address to = new Address(Bytes32.random().mutableCopy(), XDAG_FIELD_OUT);
+        Block txBlock = generateTransactionBlock(config, key, new Date().getTime(), from, to, xdag2amount(10));
+        byte[] raw = txBlock.getXdagBlock().getData().toArray();
+
+        Block parsed = new Block(new XdagBlock(raw));
+        List<Address> links = parsed.getLinks();
+        assertSame(links, parsed.getLinks());
+        assertEquals(2, links.size());
+        assertEquals(from.getHashLow(), links.get(0).getHashLow());
+        assertEquals(xdag2amount(10), links.get(1).getAmountLong());
+        assertEquals(BigInteger.valueOf(xdag2amount(10)), links.get(1).getAmount());
+
+        // keys and signatures are decoded on first use and encode back to the same raw data
+        assertEquals(txBlock.getPubKeys().size(), parsed.getPubKeys().size());
+        assertEquals(txBlock.getOutsig(), parsed.getOutsig());
+        assertArrayEquals(raw, parsed.toBytes());
+        assertEquals(1, parsed.verifiedKeys().size());
+    }
+
     @Test
     public void testExtraBlock() {
 //        Date date = fastDateFormat.parse("2020-09-20 23:45:00");
@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import org.apache.tuweni.bytes.Bytes32;
+import org.junit.Test;
+
+public class ExtraBlockPoolTest {
+
+    private static Block block(long timestamp, long difficulty) {
+        BlockInfo info = new BlockInfo();
+        info.setTimestamp(timestamp);
+        info.setDifficulty(BigInteger.valueOf(difficulty));
+        info.setHashlow(Bytes32.random().toArray());
+        return new Block(info);
+    }
+
+    @Test
+    public void testEviction() {
+        ExtraBlockPool pool = new ExtraBlockPool(2);
+        Block newer = block(0x20000, 1);
+        Block olderHard = block(0x10000, 5);
+        Block olderEasy = block(0x10010, 2);
+        pool.add(newer);
+        pool.add(olderHard);
+        assertNull(pool.getEvictable());
+
+        pool.add(olderEasy);
+        assertEquals(3, pool.size());
+        // same epoch, the lower difficulty goes first
+        assertSame(olderEasy, pool.getEvictable());
+        pool.remove(olderEasy.getHashLow());
+        pool.onEvicted();
+        assertNull(pool.getEvictable());
+
+        pool.add(block(0x30000, 9));
+        assertSame(olderHard, pool.getEvictable());
+        assertEquals(4, pool.getAdded().get());
+        assertEquals(1, pool.getRemoved().get());
+        assertEquals(1, pool.getEvicted().get());
+    }
+
+    @Test
+    public void testLookup() {
+        ExtraBlockPool pool = new ExtraBlockPool(16);
+        Block block = block(0x10000, 1);
+        pool.add(block);
+        // lookups by an equal but different hashlow instance
+        Bytes32 key = Bytes32.wrap(block.getHashLow().toArray());
+        assertTrue(pool.contains(key));
+        assertSame(block, pool.get(key));
+        // the key isn't affected by later changes of the block hashlow buffer
+        block.getHashLow().set(8, (byte) (block.getHashLow().get(8) + 1));
+        assertSame(block, pool.get(key));
+        assertSame(block, pool.remove(key));
+        assertFalse(pool.contains(key));
+        assertNull(pool.remove(key));
+    }
+}
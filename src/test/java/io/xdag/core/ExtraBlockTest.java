@@ -27,11 +27,12 @@ package io.xdag.core;
 import static io.xdag.BlockBuilder.generateAddressBlock;
 import static io.xdag.BlockBuilder.generateExtraBlock;
 import static io.xdag.BlockBuilder.generateExtraBlockGivenRandom;
-import static io.xdag.config.Constants.BI_OURS;
+import static io.xdag.core.ImportResult.ERROR;
 import static io.xdag.core.ImportResult.IMPORTED_BEST;
 import static io.xdag.core.ImportResult.IMPORTED_NOT_BEST;
 import static io.xdag.core.XdagField.FieldType.XDAG_FIELD_OUT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -82,6 +83,7 @@ public class ExtraBlockTest {
 
     @Before
     public void setUp() throws Exception {
+        ((DevnetConfig) config).setMaxExtraBlocks(expectedExtraBlocks);
         config.getNodeSpec().setStoreDir(root.newFolder().getAbsolutePath());
         config.getNodeSpec().setStoreBackupDir(root.newFolder().getAbsolutePath());
 
@@ -152,10 +154,16 @@ public class ExtraBlockTest {
             long time = XdagTime.msToXdagtimestamp(generateTime);
             long xdagTime = XdagTime.getEndOfEpoch(time);
             Block extraBlock = generateExtraBlockGivenRandom(config, poolKey, xdagTime, pending, "01" + i);
-            blockchain.tryToConnect(extraBlock);
+            result = blockchain.tryToConnect(extraBlock);
+            assertNotSame(ERROR, result);
             extraBlockList.add(extraBlock);
         }
 
+        ExtraBlockPool pool = blockchain.getExtraBlockPool();
+        assertEquals(expectedExtraBlocks, pool.getCapacity());
+        // 31 extra blocks into a pool of 12: the oldest are evicted as new ones arrive
+        assertEquals(expectedExtraBlocks + 1, pool.size());
+        assertEquals(18, pool.getEvicted().get());
         assertEquals(13, blockchain.getXdagStats().nextra);
         assertEquals(34, blockchain.getXdagStats().nblocks);
 
@@ -222,22 +230,6 @@ public class ExtraBlockTest {
             super(kernel);
         }
 
-        @Override
-        public void processExtraBlock() {
-            if (this.getMemOrphanPool().size() > expectedExtraBlocks) {
-                Block reuse = getMemOrphanPool().entrySet().iterator().next().getValue();
-                removeOrphan(reuse.getHashLow(), OrphanRemoveActions.ORPHAN_REMOVE_REUSE);
-                this.getXdagStats().nblocks--;
-                this.getXdagStats().totalnblocks = Math
-                        .max(this.getXdagStats().nblocks, this.getXdagStats().totalnblocks);
-
-                if ((reuse.getInfo().flags & BI_OURS) != 0) {
-                    removeOurBlock(reuse);
-                }
-            }
-        }
-
-
         @Override
         public void startCheckMain(long period) {
         }
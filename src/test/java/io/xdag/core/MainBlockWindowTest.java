@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.junit.Test;
+
+public class MainBlockWindowTest {
+
+    @Test
+    public void testRingBuffer() {
+        MainBlockWindow window = new MainBlockWindow(4);
+        Bytes32[] hashlows = new Bytes32[7];
+        for (int height = 1; height <= 6; height++) {
+            hashlows[height] = Bytes32.random();
+            window.add(height, hashlows[height]);
+        }
+        // only the last 4 heights are kept
+        assertEquals(4, window.size());
+        assertNull(window.getHashlow(2));
+        assertEquals(hashlows[3], window.getHashlow(3));
+        assertEquals(hashlows[6], window.getHashlow(6));
+        assertEquals(hashlows[5], window.getHashlow(5));
+        assertNull(window.getHashlow(7));
+
+        // unwinding to height 4 drops 5 and 6
+        window.remove(5);
+        assertEquals(2, window.size());
+        assertFalse(window.contains(5));
+        assertNull(window.getHashlow(6));
+        assertTrue(window.contains(4));
+
+        Bytes32 fork = Bytes32.random();
+        window.add(5, fork);
+        assertEquals(fork, window.getHashlow(5));
+        assertEquals(hashlows[3], window.getHashlow(3));
+
+        // a gap restarts the window
+        window.add(9, hashlows[1]);
+        assertEquals(1, window.size());
+        assertNull(window.getHashlow(5));
+        assertEquals(hashlows[1], window.getHashlow(9));
+    }
+}
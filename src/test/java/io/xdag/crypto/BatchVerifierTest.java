@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.crypto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.crypto.KeyPair;
+import org.junit.Test;
+
+public class BatchVerifierTest {
+
+    @Test
+    public void testVerifyBatch() throws Exception {
+        KeyPair key = Keys.createEcKeyPair();
+        KeyPair other = Keys.createEcKeyPair();
+        List<BatchVerifier.Check> checks = new ArrayList<>();
+        for (int i = 0; i < BatchVerifier.PARALLEL_THRESHOLD * 3; i++) {
+            Bytes32 hash = Hash.hashTwice(Bytes.wrap(ByteBuffer.allocate(4).putInt(i).array()));
+            checks.add(new BatchVerifier.Check(hash, Sign.SECP256K1.sign(hash, key),
+                    i % 3 == 0 ? other.getPublicKey() : key.getPublicKey()));
+        }
+
+        boolean[] res = BatchVerifier.verify(checks);
+        assertEquals(checks.size(), res.length);
+        for (int i = 0; i < res.length; i++) {
+            assertEquals(i % 3 != 0, res[i]);
+        }
+        assertEquals(1, BatchVerifier.verify(checks.subList(1, 2)).length);
+    }
+
+    @Test
+    public void testPublicKeyCache() throws Exception {
+        KeyPair key = Keys.createEcKeyPair();
+        byte[] compressed = Sign.compressPublicKey(key.getPublicKey());
+        assertEquals(Bytes.wrap(key.getPublicKey().asEcPoint(Sign.CURVE).getEncoded(true)), Bytes.wrap(compressed));
+        assertEquals(key.getPublicKey(),
+                Sign.decompressPublicKey(Bytes.wrap(compressed, 1, 32), compressed[0] == 0x03));
+    }
+}
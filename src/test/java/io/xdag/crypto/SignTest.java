@@ -98,6 +98,26 @@ public class SignTest {
         return end - start;
     }
 
+    @Test
+    public void testVerifyCache()
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
+        KeyPair key = Keys.createEcKeyPair();
+        KeyPair other = Keys.createEcKeyPair();
+        Bytes32 hash = Hash.hashTwice(Bytes.wrap(TEST_MESSAGE));
+        SECPSignature sig = Sign.SECP256K1.sign(hash, key);
+
+        long hits = Sign.getVerifyCacheStats().hitCount();
+        assertTrue(Sign.verify(hash, sig, key.getPublicKey()));
+        assertEquals(hits, Sign.getVerifyCacheStats().hitCount());
+        assertTrue(Sign.verify(hash, sig, key.getPublicKey()));
+        assertEquals(hits + 1, Sign.getVerifyCacheStats().hitCount());
+
+        // failures are not remembered
+        assertFalse(Sign.verify(hash, sig, other.getPublicKey()));
+        assertFalse(Sign.verify(hash, sig, other.getPublicKey()));
+        assertEquals(hits + 1, Sign.getVerifyCacheStats().hitCount());
+    }
+
     @Test
     public void testToCanonical(){
         String encode = "00000000000000002163550000000000a40348a18a0100000000000000000000"+
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.xdag.core.BlockInfo;
+import io.xdag.core.SnapshotInfo;
+import io.xdag.core.XdagStats;
+import io.xdag.core.XdagTopStatus;
+import io.xdag.db.execption.DeserializationException;
+import java.math.BigInteger;
+import org.apache.tuweni.bytes.Bytes32;
+import org.junit.Test;
+
+public class BlockInfoCodecTest {
+
+    private BlockInfo newBlockInfo() {
+        BlockInfo blockInfo = new BlockInfo();
+        blockInfo.setType(0x51);
+        blockInfo.setFlags(0x1f);
+        blockInfo.setHeight(1234);
+        blockInfo.setAmount(-1L);
+        blockInfo.setFee(7);
+        blockInfo.setTimestamp(0x17e4c1b2c00L);
+        blockInfo.setDifficulty(new BigInteger("31354286420799284945296"));
+        blockInfo.setHash(Bytes32.random().toArray());
+        blockInfo.setHashlow(Bytes32.random().toArray());
+        blockInfo.setMaxDiffLink(Bytes32.random().toArray());
+        blockInfo.setRemark(new byte[]{1, 2, 3});
+        return blockInfo;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BlockInfo blockInfo = newBlockInfo();
+        blockInfo.setSnapshot(true);
+        blockInfo.setSnapshotInfo(new SnapshotInfo(true, new byte[]{9, 8, 7}));
+
+        byte[] value = BlockInfoCodec.encode(blockInfo);
+        assertTrue(BlockInfoCodec.isEncoded(value));
+        BlockInfo decoded = BlockInfoCodec.decode(value);
+
+        assertEquals(blockInfo, decoded);
+        assertEquals(blockInfo.getFee(), decoded.getFee());
+        assertEquals(blockInfo.getDifficulty(), decoded.getDifficulty());
+        assertArrayEquals(blockInfo.getHashlow(), decoded.getHashlow());
+        assertArrayEquals(blockInfo.getMaxDiffLink(), decoded.getMaxDiffLink());
+        assertArrayEquals(blockInfo.getRemark(), decoded.getRemark());
+        assertNull(decoded.getRef());
+        assertTrue(decoded.isSnapshot());
+        assertEquals(blockInfo.getSnapshotInfo(), decoded.getSnapshotInfo());
+    }
+
+    @Test
+    public void testFieldReads() throws Exception {
+        BlockInfo blockInfo = newBlockInfo();
+        byte[] value = BlockInfoCodec.encode(blockInfo);
+
+        assertEquals(blockInfo.getFlags(), BlockInfoCodec.readFlags(value));
+        assertEquals(blockInfo.getAmount(), BlockInfoCodec.readAmount(value));
+        assertEquals(blockInfo.getHeight(), BlockInfoCodec.readHeight(value));
+        assertEquals(blockInfo.getTimestamp(), BlockInfoCodec.readTimestamp(value));
+    }
+
+    @Test
+    public void testLegacy() throws Exception {
+        KryoCodec kryo = new KryoCodec(BigInteger.class, byte[].class, BlockInfo.class, XdagStats.class,
+                XdagTopStatus.class, SnapshotInfo.class);
+        BlockInfo blockInfo = newBlockInfo();
+        byte[] legacy = kryo.serialize(blockInfo);
+
+        assertFalse(BlockInfoCodec.isEncoded(legacy));
+        assertEquals(blockInfo, BlockInfoCodec.decode(legacy, kryo));
+        assertEquals(blockInfo, BlockInfoCodec.decode(BlockInfoCodec.encode(blockInfo), kryo));
+    }
+
+    @Test(expected = DeserializationException.class)
+    public void testCorrupted() throws Exception {
+        byte[] value = BlockInfoCodec.encode(newBlockInfo());
+        byte[] truncated = new byte[value.length - 10];
+        System.arraycopy(value, 0, truncated, 0, truncated.length);
+        BlockInfoCodec.decode(truncated);
+    }
+}
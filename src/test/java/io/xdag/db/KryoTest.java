@@ -24,6 +24,7 @@
 
 package io.xdag.db;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -37,6 +38,11 @@ import io.xdag.core.SnapshotBalanceData;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.bouncycastle.util.encoders.Hex;
 import org.junit.Before;
 import org.junit.Test;
@@ -97,6 +103,32 @@ public class KryoTest {
 
     }
 
+    @Test
+    public void codec() throws Exception {
+        KryoCodec codec = new KryoCodec(BigInteger.class, byte[].class, BlockInfo.class, long.class, int.class,
+                SnapshotBalanceData.class);
+        BlockInfo blockInfo = new BlockInfo();
+        blockInfo.setHeight(100);
+        blockInfo.setDifficulty(new BigInteger("31354286420799284945296"));
+        // pooled buffers keep the stored format
+        assertArrayEquals(serialize(blockInfo), codec.serialize(blockInfo));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<BlockInfo>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final long height = i;
+            futures.add(executor.submit(() -> {
+                BlockInfo info = new BlockInfo();
+                info.setHeight(height);
+                return (BlockInfo) codec.deserialize(codec.serialize(info), BlockInfo.class);
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).get().getHeight());
+        }
+        executor.shutdown();
+    }
+
     private byte[] serialize(final Object obj) throws SerializationException {
         try {
             final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -25,6 +25,10 @@
 package io.xdag.db.rocksdb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 import io.xdag.config.Config;
 import io.xdag.config.DevnetConfig;
@@ -32,10 +36,15 @@ import io.xdag.crypto.Hash;
 import io.xdag.db.DatabaseFactory;
 import io.xdag.db.DatabaseName;
 import io.xdag.db.KVSource;
+import io.xdag.db.BatchedKVSource;
 import io.xdag.db.BlockStore;
+import io.xdag.utils.BytesUtils;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.bouncycastle.util.encoders.Hex;
@@ -43,6 +52,9 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.rocksdb.AbstractImmutableNativeReference;
+import org.rocksdb.AbstractNativeReference;
+import org.rocksdb.CompressionType;
 
 public class RocksdbKVSourceTest {
 
@@ -80,6 +92,144 @@ public class RocksdbKVSourceTest {
         assertEquals("1234", Hex.toHexString(orphansource.get(key)));
     }
 
+    @Test
+    public void testWriteBatch() {
+        DatabaseFactory factory = new RocksdbFactory(config);
+        KVSource<byte[], byte[]> indexSource = factory.getDB(DatabaseName.INDEX);
+        indexSource.reset();
+
+        byte[] key1 = Hex.decode("FF01");
+        byte[] key2 = Hex.decode("FF02");
+        indexSource.put(key2, Hex.decode("00"));
+
+        indexSource.writeBatch(List.of(Pair.of(key1, Hex.decode("1234")), Pair.of(key2, null)));
+
+        assertEquals("1234", Hex.toHexString(indexSource.get(key1)));
+        assertNull(indexSource.get(key2));
+    }
+
+    @Test
+    public void testColumnFamilies() {
+        ((DevnetConfig) config).setStoreColumnFamilies(true);
+        DatabaseFactory factory = new RocksdbFactory(config);
+        RocksdbKVSource indexSource = (RocksdbKVSource) factory.getDB(DatabaseName.INDEX);
+        RocksdbKVSource timeSource = (RocksdbKVSource) factory.getDB(DatabaseName.TIME);
+        indexSource.init();
+        timeSource.init();
+        assertTrue(indexSource.sharesInstanceWith(timeSource));
+
+        byte[] key = Hex.decode("FFFF");
+        RocksdbKVSource.writeAtomically(List.of(
+                Pair.of(indexSource, List.of(Pair.of(key, Hex.decode("1234")))),
+                Pair.of(timeSource, List.of(Pair.of(key, Hex.decode("5678"))))));
+        assertEquals("1234", Hex.toHexString(indexSource.get(key)));
+        assertEquals("5678", Hex.toHexString(timeSource.get(key)));
+
+        // resetting one column family leaves the others untouched
+        indexSource.reset();
+        assertNull(indexSource.get(key));
+        assertEquals("5678", Hex.toHexString(timeSource.get(key)));
+
+        factory.close();
+        factory = new RocksdbFactory(config);
+        KVSource<byte[], byte[]> reopened = factory.getDB(DatabaseName.TIME);
+        reopened.init();
+        assertEquals("5678", Hex.toHexString(reopened.get(key)));
+        factory.close();
+    }
+
+    @Test
+    public void testColumnFamiliesLayout() {
+        DatabaseFactory factory = new RocksdbFactory(config);
+        factory.getDB(DatabaseName.INDEX).init();
+        factory.close();
+
+        // an existing store of separate instances can't be opened as column families
+        ((DevnetConfig) config).setStoreColumnFamilies(true);
+        assertThrows(IllegalStateException.class, () -> new RocksdbFactory(config).getDB(DatabaseName.INDEX));
+        // the databases outside the shared instance still open
+        factory = new RocksdbFactory(config);
+        factory.getDB(DatabaseName.SNAPSHOT).init();
+        factory.close();
+
+        // and a store of column families can't be opened as separate instances
+        config.getNodeSpec().setStoreDir(config.getNodeSpec().getStoreDir() + "-cf");
+        factory = new RocksdbFactory(config);
+        factory.getDB(DatabaseName.INDEX).init();
+        factory.close();
+        ((DevnetConfig) config).setStoreColumnFamilies(false);
+        assertThrows(IllegalStateException.class, () -> new RocksdbFactory(config).getDB(DatabaseName.TIME));
+    }
+
+    @Test
+    public void testTuning() {
+        DevnetConfig devnetConfig = (DevnetConfig) config;
+        devnetConfig.setStoreBlockCacheSize(8 * 1024 * 1024);
+        devnetConfig.setStoreWriteBufferSize(4 * 1024 * 1024);
+        devnetConfig.setStoreMaxWriteBufferNumber(3);
+        devnetConfig.setStoreCompactionStyle("universal");
+        devnetConfig.setStoreBottommostCompression("zstd");
+        devnetConfig.setStorePartitionedIndexFilters(true);
+        devnetConfig.setStoreRateLimitBytesPerSec(16 * 1024 * 1024);
+        DatabaseFactory factory = new RocksdbFactory(config);
+        KVSource<byte[], byte[]> indexSource = factory.getDB(DatabaseName.INDEX);
+        indexSource.init();
+
+        byte[] key = Hex.decode("FFFF");
+        indexSource.put(key, Hex.decode("1234"));
+        assertEquals("1234", Hex.toHexString(indexSource.get(key)));
+        assertEquals(CompressionType.NO_COMPRESSION, RocksdbOptions.compressionType("none"));
+        assertEquals(CompressionType.ZSTD_COMPRESSION, RocksdbOptions.compressionType("zstd"));
+
+        // block cache, bloom filter and rate limiter are freed with the db
+        List<AbstractNativeReference> natives = new ArrayList<>(((RocksdbKVSource) indexSource).getNatives());
+        assertEquals(3, natives.size());
+        factory.close();
+        for (AbstractNativeReference nativeReference : natives) {
+            assertFalse(((AbstractImmutableNativeReference) nativeReference).isOwningHandle());
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        ((DevnetConfig) config).setStoreStatistics(true);
+        DatabaseFactory factory = new RocksdbFactory(config);
+        KVSource<byte[], byte[]> indexSource = factory.getDB(DatabaseName.INDEX);
+        indexSource.init();
+
+        byte[] key = Hex.decode("FFFF");
+        indexSource.put(key, Hex.decode("1234"));
+        indexSource.get(key);
+        indexSource.get(key);
+        // the time spent in the callback isn't part of the scan latency
+        indexSource.fetchPrefix(key, pair -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Boolean.FALSE;
+        });
+
+        Map<String, Map<String, Object>> metrics = factory.getMetrics();
+        Map<String, Object> indexMetrics = metrics.get(DatabaseName.INDEX.toString());
+        assertTrue(indexMetrics.containsKey("blockCacheHitRatio"));
+        assertTrue(indexMetrics.containsKey("compactionPendingBytes"));
+        assertTrue((Long) indexMetrics.get("memtableBytes") > 0);
+        assertEquals(1L, ((Map<?, ?>) indexMetrics.get("put")).get("count"));
+        assertEquals(2L, ((Map<?, ?>) indexMetrics.get("get")).get("count"));
+        Map<?, ?> scan = (Map<?, ?>) indexMetrics.get("prefix_scan");
+        assertEquals(1L, scan.get("count"));
+        assertTrue((Long) scan.get("maxMicros") < 100_000);
+        factory.close();
+
+        ((DevnetConfig) config).setStoreStatistics(false);
+        factory = new RocksdbFactory(config);
+        factory.getDB(DatabaseName.INDEX).init();
+        assertTrue(factory.getMetrics().isEmpty());
+        factory.close();
+    }
+
     @Test
     public void testPrefixKeyLookup() {
         DatabaseFactory factory = new RocksdbFactory(config);
@@ -106,4 +256,62 @@ public class RocksdbKVSourceTest {
         List<byte[]> values = indexSource.prefixValueLookup(key);
         assertEquals(2, values.size());
     }
+
+    @Test
+    public void testFetchPrefixStreaming() {
+        DatabaseFactory factory = new RocksdbFactory(config);
+        KVSource<byte[], byte[]> source = factory.getDB(DatabaseName.TXHISTORY);
+        source.reset();
+
+        byte[] prefix = new byte[33];
+        prefix[0] = (byte) 0xa0;
+        prefix[32] = 0x01;
+        byte[] before = prefix.clone();
+        before[32] = 0x00;
+        byte[] after = prefix.clone();
+        after[32] = 0x02;
+        source.put(key(before, 9), Hex.decode("09"));
+        source.put(key(after, 0), Hex.decode("00"));
+        for (int i = 1; i <= 5; i++) {
+            source.put(key(prefix, i), new byte[]{(byte) i});
+        }
+
+        assertEquals(List.of(1, 2, 3, 4, 5), collect(source, prefix, null, false, 10));
+        assertEquals(List.of(5, 4, 3, 2, 1), collect(source, prefix, null, true, 10));
+        assertEquals(List.of(1, 2), collect(source, prefix, null, false, 2));
+        assertEquals(List.of(3, 4, 5), collect(source, prefix, key(prefix, 3), false, 10));
+        assertEquals(List.of(3, 2), collect(source, prefix, key(prefix, 3), true, 2));
+
+        // buffered writes are merged into the stream
+        BatchedKVSource batched = new BatchedKVSource(source);
+        batched.beginBatch();
+        batched.delete(key(prefix, 4));
+        batched.put(key(prefix, 6), new byte[]{6});
+        assertEquals(List.of(6, 5, 3), collect(batched, prefix, null, true, 3));
+        assertEquals(List.of(5, 6), collect(batched, prefix, key(prefix, 4), false, 10));
+        // a buffered row replaces the stored one, rows before the first stored row come first
+        batched.put(key(prefix, 2), new byte[]{20});
+        batched.put(key(prefix, 0), new byte[]{0});
+        assertEquals(List.of(0, 1, 20, 3, 5, 6), collect(batched, prefix, null, false, 10));
+        assertEquals(List.of(0, 1, 20), collect(batched, prefix, null, false, 3));
+        assertEquals(List.of(5, 3, 20, 1, 0), collect(batched, prefix, key(prefix, 5), true, 10));
+        assertEquals(List.of(20, 3), collect(batched, prefix, key(prefix, 2), false, 2));
+        batched.commitBatch();
+        assertEquals(List.of(6, 5, 3, 20, 1, 0), collect(source, prefix, null, true, 10));
+        factory.close();
+    }
+
+    private static byte[] key(byte[] prefix, int i) {
+        return BytesUtils.merge(prefix, new byte[]{(byte) i});
+    }
+
+    private static List<Integer> collect(KVSource<byte[], byte[]> source, byte[] prefix, byte[] from,
+            boolean reverse, int limit) {
+        List<Integer> res = new ArrayList<>();
+        source.fetchPrefix(prefix, from, reverse, pair -> {
+            res.add((int) pair.getValue()[0]);
+            return res.size() >= limit;
+        });
+        return res;
+    }
 }
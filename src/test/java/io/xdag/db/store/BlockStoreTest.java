@@ -25,18 +25,38 @@
 package io.xdag.db.store;
 
 import static io.xdag.BlockBuilder.generateAddressBlock;
+import static io.xdag.config.Constants.BI_MAIN;
+import static io.xdag.config.Constants.BI_OURS;
 import static io.xdag.utils.BytesUtils.equalBytes;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.xdag.db.BlockStore;
+import io.xdag.core.BlockInfo;
+import io.xdag.core.SnapshotInfo;
+import io.xdag.core.XdagTopStatus;
+import io.xdag.db.BlockInfoCodec;
+import io.xdag.db.KryoCodec;
+import io.xdag.utils.BytesUtils;
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
 import org.apache.tuweni.bytes.MutableBytes;
 import org.bouncycastle.util.encoders.Hex;
 import org.hyperledger.besu.crypto.KeyPair;
@@ -108,6 +128,20 @@ public class BlockStoreTest {
         assertEquals(stats.getNmain(), storedStats.getNmain());
     }
 
+    @Test
+    public void testSavePowHash() {
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        Bytes32 hashlow = Bytes32.random();
+        byte[] seed = Bytes32.random().toArray();
+        assertNull(bs.getPowHash(hashlow, seed));
+        byte[] powHash = Bytes32.random().toArray();
+        bs.savePowHash(hashlow, seed, powHash);
+        assertArrayEquals(powHash, bs.getPowHash(hashlow, seed));
+        // a hash computed with another seed is stale
+        assertNull(bs.getPowHash(hashlow, Bytes32.random().toArray()));
+    }
+
     @Test
     public void testSaveBlock()
             throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
@@ -135,6 +169,88 @@ public class BlockStoreTest {
         assertArrayEquals(block.getHashLow().toArray(), bs.getOurBlock(1).toArray());
     }
 
+    @Test
+    public void testOurBlocksIndex()
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        KeyPair key = Keys.createEcKeyPair();
+        Block first = generateAddressBlock(config, key, System.currentTimeMillis());
+        Block second = generateAddressBlock(config, key, System.currentTimeMillis() + 64000);
+        bs.saveBlock(first);
+        bs.saveBlock(second);
+        bs.saveOurBlock(2, second.getHashLow().toArray());
+        bs.saveOurBlock(1, first.getHashLow().toArray());
+        assertEquals(1, bs.getKeyIndexByHash(first.getHashLow()));
+        assertEquals(2, bs.getKeyIndexByHash(second.getHashLow()));
+
+        // amounts follow the saved block infos
+        first.getInfo().setAmount(100);
+        bs.saveBlockInfo(first.getInfo());
+        second.getInfo().setAmount(50);
+        bs.saveBlockInfo(second.getInfo());
+        assertEquals(150, bs.getOurBlocksIndex().getTotalAmount(Long.MAX_VALUE));
+        // the second block is too young for the first one's time
+        assertEquals(100, bs.getOurBlocksIndex().getTotalAmount(first.getTimestamp()));
+        assertEquals(0, bs.getOurBlocksIndex().getTotalAmount(first.getTimestamp() - 1));
+
+        // amounts saved in a batch count once it is written
+        Block third = generateAddressBlock(config, key, System.currentTimeMillis() + 128000);
+        bs.beginBatch();
+        first.getInfo().setAmount(300);
+        bs.saveBlockInfo(first.getInfo());
+        third.getInfo().setAmount(20);
+        bs.saveBlock(third);
+        bs.saveOurBlock(3, third.getHashLow().toArray());
+        assertEquals(3, bs.getKeyIndexByHash(third.getHashLow()));
+        assertEquals(150, bs.getOurBlocksIndex().getTotalAmount(Long.MAX_VALUE));
+        bs.commitBatch();
+        assertEquals(370, bs.getOurBlocksIndex().getTotalAmount(Long.MAX_VALUE));
+        bs.removeOurBlock(third.getHashLow().toArray());
+
+        // visited in key order, and rebuilt from the db on init
+        BlockStore reopened = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        reopened.init();
+        List<Integer> indexes = new ArrayList<>();
+        reopened.fetchOurBlockAmounts(block -> {
+            indexes.add(block.getIndex());
+            return false;
+        });
+        assertEquals(List.of(1, 2), indexes);
+        assertEquals(350, reopened.getOurBlocksIndex().getTotalAmount(Long.MAX_VALUE));
+
+        reopened.removeOurBlock(first.getHashLow().toArray());
+        assertEquals(-1, reopened.getKeyIndexByHash(first.getHashLow()));
+        assertEquals(50, reopened.getOurBlocksIndex().getTotalAmount(Long.MAX_VALUE));
+        assertEquals(0, reopened.getOurBlocksIndex().getTotalAmount(first.getTimestamp()));
+    }
+
+    @Test
+    public void testMinedBlocks() {
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        Bytes32[] hashlows = new Bytes32[4];
+        for (int height = 1; height <= 3; height++) {
+            hashlows[height] = Bytes32.random();
+            bs.saveMinedBlock(height, hashlows[height].toArray());
+        }
+        assertEquals(List.of(hashlows[3], hashlows[2]), bs.getMinedBlocks(2));
+        bs.removeMinedBlock(3);
+        assertEquals(List.of(hashlows[2], hashlows[1]), bs.getMinedBlocks(5));
+
+        // a db without the index gets it built from the height index on init
+        BlockInfo info = new BlockInfo();
+        info.setHashlow(Bytes32.random().toArray());
+        info.setHash(info.getHashlow());
+        info.setHeight(7);
+        info.setFlags(BI_MAIN | BI_OURS);
+        bs.saveBlockInfo(info);
+        indexSource.delete(new byte[]{BlockStore.SETTING_MINED_BLOCK_INDEX});
+        BlockStore reopened = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        reopened.init();
+        assertEquals(Bytes32.wrap(info.getHashlow()), reopened.getMinedBlocks(1).get(0));
+    }
+
     @Test
     public void testRemoveOurBlock()
             throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
@@ -186,4 +302,207 @@ public class BlockStoreTest {
         assertEquals(block, blocks.get(0));
 
     }
+
+    @Test
+    public void testFetchRawBlocksByTime()
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        long time = System.currentTimeMillis();
+        KeyPair key = Keys.createEcKeyPair();
+        List<Block> saved = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Block block = generateAddressBlock(config, key, time + i * 0x10000L);
+            bs.saveBlock(block);
+            saved.add(block);
+        }
+
+        // 每次只取一个区块, 从上次的key之后继续
+        List<byte[]> raws = new ArrayList<>();
+        byte[][] lastKey = {null};
+        for (int i = 0; i < 4; i++) {
+            bs.fetchRawBlocksByTime(saved.get(0).getTimestamp(), saved.get(2).getTimestamp() + 1, lastKey[0], (k, raw) -> {
+                lastKey[0] = k;
+                raws.add(raw);
+                return Boolean.TRUE;
+            });
+        }
+        // endTime所在的时间片之后的区块不返回
+        assertEquals(3, raws.size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(saved.get(i).getXdagBlock().getData().toArray(), raws.get(i));
+        }
+    }
+
+    @Test
+    public void testBlockInfoCache()
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException {
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory, 1, 64 * 1024);
+        bs.init();
+        long time = System.currentTimeMillis();
+        KeyPair key = Keys.createEcKeyPair();
+        Block block = generateAddressBlock(config, key, time);
+        bs.saveBlock(block);
+
+        // write-through: the saved info is served from memory
+        Block stored = bs.getBlockInfoByHash(block.getHashLow());
+        assertEquals(block.getInfo(), stored.getInfo());
+        assertEquals(1, bs.getBlockInfoCacheStats().hitCount());
+
+        // callers mutate the returned info, the cached copy must stay untouched
+        stored.getInfo().setFlags(0xff);
+        assertEquals(block.getInfo().getFlags(), bs.getBlockInfoByHash(block.getHashLow()).getInfo().getFlags());
+
+        // a second block evicts one of the two from a single entry cache, the admission policy picks which
+        Block block1 = generateAddressBlock(config, key, time + 1);
+        bs.saveBlock(block1);
+        assertTrue(bs.getBlockInfoCacheStats().evictionCount() > 0);
+        assertEquals(block.getInfo(), bs.getBlockInfoByHash(block.getHashLow()).getInfo());
+        assertEquals(block1.getInfo(), bs.getBlockInfoByHash(block1.getHashLow()).getInfo());
+        assertTrue(bs.getBlockInfoCacheStats().missCount() > 0);
+    }
+
+    @Test
+    public void testBatch()
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException,
+            InterruptedException {
+        assertBatch();
+    }
+
+    @Test
+    public void testBatchColumnFamilies()
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException,
+            InterruptedException {
+        ((DevnetConfig) config).setStoreColumnFamilies(true);
+        factory = new RocksdbFactory(config);
+        indexSource = factory.getDB(DatabaseName.INDEX);
+        timeSource = factory.getDB(DatabaseName.TIME);
+        blockSource = factory.getDB(DatabaseName.BLOCK);
+        txHistory = factory.getDB(DatabaseName.TXHISTORY);
+        assertBatch();
+        factory.close();
+    }
+
+    private void assertBatch()
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchProviderException,
+            InterruptedException {
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        long time = System.currentTimeMillis();
+        KeyPair key = Keys.createEcKeyPair();
+        Block block = generateAddressBlock(config, key, time);
+
+        bs.beginBatch();
+        bs.saveBlock(block);
+        // buffered rows are visible through the store but not yet written to the db
+        assertTrue(bs.hasBlock(block.getHashLow()));
+        assertEquals(1, bs.getBlocksUsedTime(time, time + 1).size());
+        assertNull(blockSource.get(block.getHashLow().toArray()));
+
+        bs.commitBatch();
+        assertArrayEquals(block.getXdagBlock().getData().toArray(), blockSource.get(block.getHashLow().toArray()));
+        assertArrayEquals(block.toBytes(), bs.getBlockByHash(block.getHashLow(), true).toBytes());
+
+        // buffered rows belong to the batch's thread, others only see the db
+        Bytes sums = bs.getSums(BlockStore.SUM_FILE_NAME).copy();
+        Block other = generateAddressBlock(config, Keys.createEcKeyPair(), time + 2);
+        int flags = bs.getBlockInfoByHash(block.getHashLow()).getInfo().getFlags();
+        bs.beginBatch();
+        bs.saveBlock(other);
+        BlockInfo info = bs.getBlockInfoByHash(block.getHashLow()).getInfo();
+        info.setFlags(flags | BI_MAIN);
+        bs.saveBlockInfo(info);
+        assertNotEquals(sums, bs.getSums(BlockStore.SUM_FILE_NAME));
+        assertTrue(bs.hasBlockInfo(other.getHashLow()));
+        assertEquals(flags | BI_MAIN, bs.getBlockInfoFlags(block.getHashLow()).getAsInt());
+        AtomicBoolean seen = new AtomicBoolean(true);
+        AtomicBoolean seenInfo = new AtomicBoolean(true);
+        AtomicInteger seenFlags = new AtomicInteger();
+        AtomicReference<Bytes> seenSums = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            seen.set(bs.hasBlock(other.getHashLow()));
+            seenInfo.set(bs.hasBlockInfo(other.getHashLow()));
+            seenFlags.set(bs.getBlockInfoByHash(block.getHashLow()).getInfo().getFlags());
+            seenSums.set(bs.getSums(BlockStore.SUM_FILE_NAME).copy());
+        });
+        reader.start();
+        reader.join();
+        assertFalse(seen.get());
+        assertFalse(seenInfo.get());
+        assertEquals(flags, seenFlags.get());
+        assertEquals(sums, seenSums.get());
+
+        bs.commitBatch();
+        assertTrue(bs.hasBlock(other.getHashLow()));
+        assertTrue(bs.hasBlock(block.getHashLow()));
+        reader = new Thread(() -> {
+            seenInfo.set(bs.hasBlockInfo(other.getHashLow()));
+            seenFlags.set(bs.getBlockInfoFlags(block.getHashLow()).getAsInt());
+            seenSums.set(bs.getSums(BlockStore.SUM_FILE_NAME).copy());
+        });
+        reader.start();
+        reader.join();
+        assertTrue(seenInfo.get());
+        assertEquals(flags | BI_MAIN, seenFlags.get());
+        assertNotEquals(sums, seenSums.get());
+    }
+
+    @Test
+    public void testMigrateBlockInfoFormat() throws Exception {
+        BlockInfo blockInfo = new BlockInfo();
+        blockInfo.setHashlow(Bytes32.random().toArray());
+        blockInfo.setHash(blockInfo.getHashlow());
+        blockInfo.setFlags(0x0f);
+        blockInfo.setAmount(100);
+        KryoCodec kryo = new KryoCodec(BigInteger.class, byte[].class, BlockInfo.class, XdagStats.class,
+                XdagTopStatus.class, SnapshotInfo.class);
+        byte[] key = BytesUtils.merge(BlockStore.HASH_BLOCK_INFO, blockInfo.getHashlow());
+        indexSource.init();
+        indexSource.put(key, kryo.serialize(blockInfo));
+
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        assertTrue(BlockInfoCodec.isEncoded(indexSource.get(key)));
+        assertEquals(blockInfo, bs.getBlockInfoByHash(Bytes32.wrap(blockInfo.getHashlow())).getInfo());
+        assertEquals(0x0f, bs.getBlockInfoFlags(Bytes32.wrap(blockInfo.getHashlow())).getAsInt());
+        assertFalse(bs.getBlockInfoFlags(Bytes32.random()).isPresent());
+        assertArrayEquals(new byte[]{BlockInfoCodec.VERSION}, indexSource.get(new byte[]{BlockStore.SETTING_BLOCK_INFO_FORMAT}));
+    }
+
+    @Test
+    public void testMigrateBlockInfoFormatFailure() {
+        byte[] key = BytesUtils.merge(BlockStore.HASH_BLOCK_INFO, Bytes32.random().toArray());
+        indexSource.init();
+        indexSource.put(key, Hex.decode("ffffffff"));
+
+        // a row that can't be converted leaves the format unmarked, so the next start retries it
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        assertNull(indexSource.get(new byte[]{BlockStore.SETTING_BLOCK_INFO_FORMAT}));
+    }
+
+    @Test
+    public void testSums() throws Exception {
+        KryoCodec kryo = new KryoCodec(BigInteger.class, byte[].class, BlockInfo.class, XdagStats.class,
+                XdagTopStatus.class, SnapshotInfo.class);
+        MutableBytes legacy = MutableBytes.create(4096);
+        legacy.set(3 * 16, Bytes.wrap(BytesUtils.longToBytes(10, true)));
+        legacy.set(3 * 16 + 8, Bytes.wrap(BytesUtils.longToBytes(512, true)));
+        byte[] legacyKey = BytesUtils.merge(BlockStore.SUMS_BLOCK_INFO, BlockStore.SUM_FILE_NAME.getBytes(StandardCharsets.UTF_8));
+        indexSource.init();
+        indexSource.put(legacyKey, kryo.serialize(legacy.toArray()));
+
+        BlockStore bs = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        bs.init();
+        bs.updateSum(BlockStore.SUM_FILE_NAME, 5, 512, 3);
+        // the legacy file is split into slot rows on first use
+        assertNull(indexSource.get(legacyKey));
+
+        BlockStore reopened = new BlockStore(indexSource, timeSource, blockSource, txHistory);
+        Bytes sums = reopened.getSums(BlockStore.SUM_FILE_NAME);
+        assertEquals(15, sums.getLong(3 * 16, ByteOrder.LITTLE_ENDIAN));
+        assertEquals(1024, sums.getLong(3 * 16 + 8, ByteOrder.LITTLE_ENDIAN));
+        assertEquals(0, sums.getLong(4 * 16, ByteOrder.LITTLE_ENDIAN));
+        assertNull(reopened.getSums("00/" + BlockStore.SUM_FILE_NAME));
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.db.store;
+
+import static io.xdag.BlockBuilder.generateAddressBlock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.xdag.config.Config;
+import io.xdag.config.DevnetConfig;
+import io.xdag.core.Address;
+import io.xdag.core.Block;
+import io.xdag.crypto.Keys;
+import io.xdag.db.DatabaseFactory;
+import io.xdag.db.DatabaseName;
+import io.xdag.db.OrphanPool;
+import io.xdag.db.rocksdb.RocksdbFactory;
+import java.util.List;
+import org.hyperledger.besu.crypto.KeyPair;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OrphanPoolTest {
+
+    @Rule
+    public TemporaryFolder root = new TemporaryFolder();
+
+    Config config = new DevnetConfig();
+    DatabaseFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        config.getNodeSpec().setStoreDir(root.newFolder().getAbsolutePath());
+        config.getNodeSpec().setStoreBackupDir(root.newFolder().getAbsolutePath());
+        factory = new RocksdbFactory(config);
+    }
+
+    @Test
+    public void testGetOldestOrphans() throws Exception {
+        OrphanPool orphanPool = new OrphanPool(factory.getDB(DatabaseName.ORPHANIND));
+        orphanPool.reset();
+        assertNull(orphanPool.getOrphan(16, new long[]{Long.MAX_VALUE, 0}));
+
+        KeyPair key = Keys.createEcKeyPair();
+        Block young = generateAddressBlock(config, key, 3000);
+        Block old = generateAddressBlock(config, key, 1000);
+        Block middle = generateAddressBlock(config, key, 2000);
+        orphanPool.addOrphan(young);
+        orphanPool.addOrphan(old);
+        orphanPool.addOrphan(middle);
+        orphanPool.addOrphan(middle);
+        assertEquals(3, orphanPool.getOrphanSize());
+
+        long[] sendtime = {2500, 0};
+        List<Address> orphans = orphanPool.getOrphan(16, sendtime);
+        assertEquals(2, orphans.size());
+        assertEquals(old.getHashLow(), orphans.get(0).getHashLow());
+        assertEquals(middle.getHashLow(), orphans.get(1).getHashLow());
+        assertEquals(2001, sendtime[1]);
+
+        orphans = orphanPool.getOrphan(1, new long[]{Long.MAX_VALUE, 0});
+        assertEquals(1, orphans.size());
+        assertEquals(old.getHashLow(), orphans.get(0).getHashLow());
+
+        orphanPool.deleteByHash(old.getHashLow().toArray());
+        orphanPool.deleteByHash(old.getHashLow().toArray());
+        assertEquals(2, orphanPool.getOrphanSize());
+
+        // the index is rebuilt from the db
+        OrphanPool reloaded = new OrphanPool(factory.getDB(DatabaseName.ORPHANIND));
+        reloaded.init();
+        assertEquals(2, reloaded.getOrphanSize());
+        orphans = reloaded.getOrphan(16, new long[]{Long.MAX_VALUE, 0});
+        assertEquals(middle.getHashLow(), orphans.get(0).getHashLow());
+        assertEquals(young.getHashLow(), orphans.get(1).getHashLow());
+        factory.close();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.net;
+
+import static io.xdag.config.Constants.MSG_QUEUE_BATCH_BYTES;
+import static io.xdag.config.Constants.MSG_QUEUE_HIGH_WATER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.xdag.core.XdagBlock;
+import io.xdag.net.message.Message;
+import io.xdag.net.message.MessageQueue;
+import org.junit.Test;
+
+public class MessageQueueTest {
+
+    @Test
+    public void testRequestFirst() {
+        EmbeddedChannel embedded = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        MessageQueue queue = new MessageQueue(mock(Channel.class));
+        queue.activate(embedded.pipeline().firstContext());
+
+        Message respond = mock(Message.class);
+        Message request = mock(Message.class);
+        doReturn(Object.class).when(request).getAnswerMessage();
+        queue.sendMessage(respond);
+        queue.sendMessage(request);
+        assertEquals(2, queue.size());
+
+        // 写出在event loop上执行
+        assertNull(embedded.readOutbound());
+        embedded.runPendingTasks();
+        assertSame(request, embedded.readOutbound());
+        assertSame(respond, embedded.readOutbound());
+        assertEquals(0, queue.size());
+        assertEquals(2, queue.getSentMessages());
+        assertEquals(1, queue.getFlushes());
+    }
+
+    @Test
+    public void testWaterMark() {
+        EmbeddedChannel embedded = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        MessageQueue queue = new MessageQueue(mock(Channel.class));
+        queue.activate(embedded.pipeline().firstContext());
+
+        int n = (int) (MSG_QUEUE_HIGH_WATER / XdagBlock.XDAG_BLOCK_SIZE) + 1;
+        Message msg = mock(Message.class);
+        for (int i = 0; i < n; i++) {
+            assertTrue(queue.isWritable());
+            queue.sendMessage(msg);
+        }
+        assertFalse(queue.isWritable());
+        assertEquals(n, queue.getMaxQueuedMessages());
+
+        embedded.runPendingTasks();
+        assertTrue(queue.isWritable());
+        assertEquals(0, queue.size());
+        assertEquals(n, queue.getSentMessages());
+        int batch = MSG_QUEUE_BATCH_BYTES / XdagBlock.XDAG_BLOCK_SIZE;
+        assertEquals((n + batch - 1) / batch, queue.getFlushes());
+    }
+}
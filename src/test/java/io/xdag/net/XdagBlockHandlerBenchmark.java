@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.net;
+
+import static io.xdag.utils.BasicUtils.crc32Verify;
+
+import io.xdag.net.handler.XdagBlockHandler;
+import io.xdag.net.message.impl.NewBlockMessage;
+import io.xdag.utils.BytesUtils;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Per-frame cost of validating an inbound transport header: the previous clone + zero + crc32Verify against
+ * XdagBlockHandler.isDataIllegal. Run with main() from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XdagBlockHandlerBenchmark {
+
+    private byte[] frame;
+    private int crc;
+
+    @Setup
+    public void setup() {
+        byte[] raw = new byte[512];
+        new Random(1).nextBytes(raw);
+        frame = NewBlockMessage.fromRaw(raw, 5).getEncoded().toArray();
+        crc = BytesUtils.bytesToInt(frame, 4, true);
+    }
+
+    @Benchmark
+    public boolean cloneAndVerify() {
+        byte[] uncryptData = frame.clone();
+        long transportHeader = BytesUtils.bytesToLong(uncryptData, 0, true);
+        long dataLength = (transportHeader >> 16 & 0xffff);
+        int crc = BytesUtils.bytesToInt(uncryptData, 4, true);
+        System.arraycopy(BytesUtils.longToBytes(0, true), 0, uncryptData, 4, 4);
+        return (dataLength != 512 || !crc32Verify(uncryptData, crc));
+    }
+
+    @Benchmark
+    public boolean inPlace() {
+        // isDataIllegal clears the crc field, put it back for the next frame
+        frame[4] = (byte) crc;
+        frame[5] = (byte) (crc >> 8);
+        frame[6] = (byte) (crc >> 16);
+        frame[7] = (byte) (crc >> 24);
+        return XdagBlockHandler.isDataIllegal(frame);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(XdagBlockHandlerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
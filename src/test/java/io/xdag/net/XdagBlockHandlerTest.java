@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.xdag.net;
+
+import static io.xdag.BlockBuilder.generateAddressBlock;
+import static io.xdag.net.handler.XdagBlockHandler.isDataIllegal;
+import static io.xdag.utils.BasicUtils.crc32Verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.xdag.Kernel;
+import io.xdag.config.Config;
+import io.xdag.config.DevnetConfig;
+import io.xdag.core.XdagBlock;
+import io.xdag.core.XdagField;
+import io.xdag.crypto.Keys;
+import io.xdag.crypto.jni.Native;
+import io.xdag.net.handler.XdagBlockHandler;
+import io.xdag.net.message.XdagMessageCodes;
+import io.xdag.net.message.impl.NewBlockMessage;
+import io.xdag.net.message.impl.Xdag03MessageFactory;
+import io.xdag.net.node.Node;
+import io.xdag.utils.BytesUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class XdagBlockHandlerTest {
+
+    private static final Config config = new DevnetConfig();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Native.init(config);
+        if (Native.dnet_crypt_init() < 0) {
+            throw new Exception("dnet crypt init failed");
+        }
+        Native.crypt_start();
+    }
+
+    @Test
+    public void testDirectCrypt() throws Exception {
+        // 旧版本的库没有原地加解密, 此时handler只走字节数组
+        Assume.assumeTrue(Native.isDirectCryptSupported());
+        List<byte[]> frames = frames(3);
+        ByteBuf buf = Unpooled.directBuffer();
+        for (byte[] frame : frames) {
+            buf.writeBytes(frame);
+        }
+        Native.dfslib_encrypt_sectors(buf.memoryAddress(), frames.size(), 7);
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] sector = new byte[XdagBlock.XDAG_BLOCK_SIZE];
+            buf.getBytes(i * XdagBlock.XDAG_BLOCK_SIZE, sector);
+            assertArrayEquals(Native.dfslib_encrypt_byte_sector(frames.get(i).clone(), sector.length, 7 + i), sector);
+        }
+        Native.dfslib_uncrypt_sectors(buf.memoryAddress(), frames.size(), 7);
+        for (byte[] frame : frames) {
+            byte[] sector = new byte[XdagBlock.XDAG_BLOCK_SIZE];
+            buf.readBytes(sector);
+            assertArrayEquals(frame, sector);
+        }
+        buf.release();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<byte[]> frames = frames(3);
+        byte[] cipher = encrypt(frames);
+
+        // 一次读到两个半帧, 剩下的半帧留到下一次
+        int split = 2 * XdagBlock.XDAG_BLOCK_SIZE + XdagBlock.XDAG_BLOCK_SIZE / 2;
+        for (boolean direct : new boolean[]{true, false}) {
+            EmbeddedChannel in = new EmbeddedChannel(newHandler());
+            in.writeInbound(buffer(Arrays.copyOfRange(cipher, 0, split), direct));
+            assertFrame(frames.get(0), in.readInbound());
+            assertFrame(frames.get(1), in.readInbound());
+            assertNull(in.readInbound());
+            in.writeInbound(buffer(Arrays.copyOfRange(cipher, split, cipher.length), direct));
+            assertFrame(frames.get(2), in.readInbound());
+            assertNull(in.readInbound());
+        }
+    }
+
+    @Test
+    public void testDecodeFailure() throws Exception {
+        List<byte[]> frames = frames(3);
+        // 未知的消息码, 消息工厂抛出异常
+        byte[] raw = new byte[XdagBlock.XDAG_BLOCK_SIZE];
+        raw[8] = (byte) (XdagField.FieldType.XDAG_FIELD_NONCE.asByte() | XdagMessageCodes.WORKER_NAME.asByte() << 4);
+        frames.set(1, NewBlockMessage.fromRaw(raw, 1).getEncoded().toArray());
+        byte[] cipher = encrypt(frames);
+
+        for (boolean direct : new boolean[]{true, false}) {
+            XdagBlockHandler handler = newHandler();
+            handler.setMessageFactory(new Xdag03MessageFactory());
+            EmbeddedChannel in = new EmbeddedChannel(handler);
+            try {
+                in.writeInbound(buffer(cipher, direct));
+                fail();
+            } catch (DecoderException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            assertFrame(frames.get(0), in.readInbound());
+            assertNull(in.readInbound());
+            // 失败帧之后的sector只解密一次
+            in.writeInbound(Unpooled.EMPTY_BUFFER);
+            assertFrame(frames.get(2), in.readInbound());
+            assertNull(in.readInbound());
+        }
+    }
+
+    /**
+     * 按发送顺序加密所有帧
+     */
+    private static byte[] encrypt(List<byte[]> frames) {
+        EmbeddedChannel out = new EmbeddedChannel(newHandler());
+        ByteBuf encrypted = Unpooled.directBuffer();
+        for (int i = 0; i < frames.size(); i++) {
+            out.writeOutbound(new XdagBlock(frames.get(i).clone()));
+            ByteBuf buf = out.readOutbound();
+            // 与字节数组加密结果一致
+            assertArrayEquals(Native.dfslib_encrypt_byte_sector(frames.get(i).clone(), XdagBlock.XDAG_BLOCK_SIZE, i + 1),
+                    BytesUtils.subArray(bytes(buf), 0, XdagBlock.XDAG_BLOCK_SIZE));
+            buf.resetReaderIndex();
+            encrypted.writeBytes(buf);
+            buf.release();
+        }
+        byte[] cipher = bytes(encrypted);
+        encrypted.release();
+        return cipher;
+    }
+
+    private static XdagBlockHandler newHandler() {
+        Channel channel = mock(Channel.class);
+        Kernel kernel = mock(Kernel.class);
+        Node node = new Node("127.0.0.1", 8001);
+        when(channel.getNode()).thenReturn(node);
+        when(channel.getKernel()).thenReturn(kernel);
+        when(kernel.getConfig()).thenReturn(config);
+        return new XdagBlockHandler(channel);
+    }
+
+    private static List<byte[]> frames(int n) throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+            byte[] raw = generateAddressBlock(config, Keys.createEcKeyPair(), time + i).getXdagBlock().getData()
+                    .toArray();
+            frames.add(NewBlockMessage.fromRaw(raw, i + 1).getEncoded().toArray());
+        }
+        return frames;
+    }
+
+    private static void assertFrame(byte[] frame, Object msg) {
+        NewBlockMessage block = (NewBlockMessage) msg;
+        byte[] expected = frame.clone();
+        Arrays.fill(expected, 0, 8, (byte) 0);
+        assertArrayEquals(expected, block.getEncoded().toArray());
+        assertEquals((frame[1] & 0xff), block.getTtl());
+    }
+
+    private static ByteBuf buffer(byte[] data, boolean direct) {
+        ByteBuf buf = direct ? Unpooled.directBuffer(data.length) : Unpooled.buffer(data.length);
+        return buf.writeBytes(data);
+    }
+
+    private static byte[] bytes(ByteBuf buf) {
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testIsDataIllegal() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            byte[] raw = new byte[512];
+            random.nextBytes(raw);
+            byte[] stored = raw.clone();
+            byte[] frame = NewBlockMessage.fromRaw(raw, 5).getEncoded().toArray();
+            // 传输头不能写回存储的区块数据
+            assertArrayEquals(stored, raw);
+            byte[] copy = frame.clone();
+
+            assertFalse(isOldDataIllegal(frame.clone()));
+            assertFalse(isDataIllegal(frame));
+            // 只清零crc字段
+            System.arraycopy(copy, 4, frame, 4, 4);
+            assertArrayEquals(copy, frame);
+
+            frame[8 + random.nextInt(504)] ^= 1;
+            assertTrue(isOldDataIllegal(frame.clone()));
+            assertTrue(isDataIllegal(frame));
+        }
+
+        // 长度不是512
+        byte[] frame = NewBlockMessage.fromRaw(new byte[512], 5).getEncoded().toArray();
+        frame[3] = 0;
+        assertTrue(isDataIllegal(frame));
+    }
+
+    private static boolean isOldDataIllegal(byte[] uncryptData) {
+        long transportHeader = BytesUtils.bytesToLong(uncryptData, 0, true);
+        long dataLength = (transportHeader >> 16 & 0xffff);
+        int crc = BytesUtils.bytesToInt(uncryptData, 4, true);
+        System.arraycopy(BytesUtils.longToBytes(0, true), 0, uncryptData, 4, 4);
+        return (dataLength != 512 || !crc32Verify(uncryptData, crc));
+    }
+}
@@ -25,6 +25,8 @@
 package io.xdag.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import io.xdag.utils.exception.XdagOverFlowException;
 import java.math.BigDecimal;
@@ -80,6 +82,20 @@ public class BasicUtilsTest {
         BasicUtils.amount2xdag(a);
     }
 
+    @Test
+    public void testUnsignedAmount() {
+        long max = -1L; // 2^64 - 1
+        assertTrue(BasicUtils.compareAmount(max, 1) > 0);
+        assertTrue(BasicUtils.compareAmount(1L << 63, Long.MAX_VALUE) > 0);
+        assertEquals(0, BasicUtils.compareAmount(5, 5));
+        assertTrue(BasicUtils.compareAmount(4, 5) < 0);
+
+        assertFalse(BasicUtils.amountAddOverflows(Long.MAX_VALUE, 1));
+        assertFalse(BasicUtils.amountAddOverflows(max - 1, 1));
+        assertTrue(BasicUtils.amountAddOverflows(max, 1));
+        assertTrue(BasicUtils.amountAddOverflows(1L << 63, 1L << 63));
+    }
+
     @Test
     public void xdag_diff2logTest() {
 //        double res = BasicUtils.xdag_diff2log(